@@ -0,0 +1,147 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Exact k nearest neighbours for many queries at once,eg. every probe crop of an overnight reconciliation
+ * The queries are split into blocks that run as separate tasks on the executor. Each task walks the catalog
+ * one tile at a time and scores all of its queries against a tile before moving on,
+ * so the tile's histograms are read from cache queryBlock times instead of once per query from memory.
+ * Any ExecutorService works,a ForkJoinPool (the common pool by default) or Executors.newVirtualThreadPerTaskExecutor()
+ */
+public class BatchKNN {
+	public static final int DEFAULT_QUERY_BLOCK = 32;
+	public static final int DEFAULT_CATALOG_TILE = 256;//256 float histograms are 256KB,about an L2 cache
+
+	private final ExecutorService executor;
+	private DistanceMetric metric;
+	private int queryBlock = DEFAULT_QUERY_BLOCK;
+	private int catalogTile = DEFAULT_CATALOG_TILE;
+
+	public BatchKNN() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 * @param executor runs the query blocks,it is not shut down by this class
+	 */
+	public BatchKNN(ExecutorService executor) {
+		this.executor = executor;
+		this.metric = KNN.getMetric();
+	}
+
+	/**
+	 * The k catalog products nearest to each query
+	 * @param queries
+	 * @param catalog
+	 * @param k
+	 * @return one list per query in the same order,nearest first
+	 */
+	public List<List<Product>> nearest(List<Features> queries,List<Product> catalog,int k) {
+		return nearest(queries,catalog,k,Double.MAX_VALUE);
+	}
+
+	/**
+	 * The k catalog products nearest to each query that are at most maxDistance away
+	 * Catalog products without features are skipped
+	 * @param queries
+	 * @param catalog
+	 * @param k
+	 * @param maxDistance
+	 * @return one list per query in the same order,nearest first
+	 */
+	public List<List<Product>> nearest(List<Features> queries,List<Product> catalog,int k,double maxDistance) {
+		List<Product> usable = new ArrayList<>();
+		for (Product p : catalog) {
+			if (p.getFeatures() != null) {
+				usable.add(p);
+			}
+		}
+		Features[] feats = new Features[usable.size()];
+		for (int i = 0; i<feats.length; i++) {
+			feats[i] = usable.get(i).getFeatures();
+		}
+		Features[] qs = queries.toArray(new Features[0]);
+		int[][] found = new int[qs.length][];
+		DistanceMetric m = metric;
+		int block = queryBlock, tile = catalogTile;
+		int kept = Math.max(0,Math.min(k,feats.length));//no query can have more neighbours than the catalog holds
+
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for (int from = 0; from<qs.length; from += block) {
+			int start = from, end = Math.min(qs.length,from+block);
+			tasks.add(CompletableFuture.runAsync(() -> scan(qs,start,end,feats,tile,kept,maxDistance,m,found),executor));
+		}
+		CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+
+		List<List<Product>> results = new ArrayList<>();
+		for (int[] ids : found) {
+			List<Product> near = new ArrayList<>();
+			for (int id : ids) {
+				near.add(usable.get(id));
+			}
+			results.add(near);
+		}
+		return results;
+	}
+
+	/**
+	 * Scores queries[from,to) against the catalog tile by tile
+	 */
+	private static void scan(Features[] queries,int from,int to,Features[] catalog,int tile,int k,double maxDistance,DistanceMetric metric,int[][] found) {
+		NearestHeap[] best = new NearestHeap[to-from];
+		for (int q = 0; q<best.length; q++) {
+			best[q] = new NearestHeap(k);
+		}
+		if (k > 0) {
+			for (int t = 0; t<catalog.length; t += tile) {
+				int tileEnd = Math.min(catalog.length,t+tile);
+				for (int q = from; q<to; q++) {
+					Features query = queries[q];
+					NearestHeap b = best[q-from];
+					for (int c = t; c<tileEnd; c++) {
+						//probe crops are never in the distance cache,so it is skipped
+						double d = KNN.rawDistance(query,catalog[c],metric);
+						if (d <= b.limit(maxDistance)) {
+							b.offer(d,c);
+						}
+					}
+				}
+			}
+		}
+		for (int q = from; q<to; q++) {
+			found[q] = best[q-from].sorted();
+		}
+	}
+
+	//Getters and setters
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+	public DistanceMetric getMetric() {
+		return metric;
+	}
+	public void setMetric(DistanceMetric metric) {
+		this.metric = metric;
+	}
+	public int getQueryBlock() {
+		return queryBlock;
+	}
+	public void setQueryBlock(int queryBlock) {
+		this.queryBlock = Math.max(1,queryBlock);
+	}
+	public int getCatalogTile() {
+		return catalogTile;
+	}
+	public void setCatalogTile(int catalogTile) {
+		this.catalogTile = Math.max(1,catalogTile);
+	}
+}
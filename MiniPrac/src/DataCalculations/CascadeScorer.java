@@ -0,0 +1,164 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Works out the Euclidean KNN.computeDistance between products only as far as it takes to tell a pair is too far
+ * Each stage is a lower bound on the full distance,cheaper than the next:
+ * 1. name,shelf,gray,width and height,without the histogram at all
+ * 2. adding the coarse 16 bin histograms,see Features.coarseHistogramBound
+ * 3. the full histogram summed bin by bin,abandoned as soon as the sum is over what is left of the limit
+ * Pairs that get past stage 1 and are already in KNN's distance cache are read from it instead of stages 2 and 3.
+ * A pair dropped at any stage is counted,so getPruningRate tells how much of the work was skipped
+ */
+public class CascadeScorer {
+	private final LongAdder pairs = new LongAdder();//pairs scored
+	private final LongAdder metadataPruned = new LongAdder();//dropped at stage 1
+	private final LongAdder coarsePruned = new LongAdder();//dropped at stage 2
+	private final LongAdder abandoned = new LongAdder();//dropped part way through stage 3
+	private final LongAdder cacheHits = new LongAdder();//read from the distance cache after stage 1
+
+	/**
+	 * Distance between two products if it is at most limit
+	 * @param query
+	 * @param candidate
+	 * @param limit
+	 * @return the distance,or Double.POSITIVE_INFINITY when it is over limit
+	 */
+	public double distance(Product query,Product candidate,double limit) {
+		return distance(query,query.getFeatures().getRgbHistogram(),candidate,limit);
+	}
+
+	/**
+	 * distance with the query's histogram already read,so a store only copies it once per query
+	 */
+	private double distance(Product query,double[] queryHist,Product candidate,double limit) {
+		pairs.increment();
+		Features q = query.getFeatures(), c = candidate.getFeatures();
+		double labels = KNN.labelDistance(query,candidate);
+		double grayDiff = q.getAvgGray()-c.getAvgGray();
+		double widthDiff = q.getWidth()-c.getWidth();
+		double heightDiff = q.getHeight()-c.getHeight();
+		double meta = grayDiff*grayDiff + widthDiff*widthDiff + heightDiff*heightDiff;
+		if (labels+Math.sqrt(meta) > limit) {
+			metadataPruned.increment();
+			return Double.POSITIVE_INFINITY;
+		}
+		DistanceCache cache = KNN.getDistanceCache();
+		double cached = (cache == null) ? Double.NaN : cache.cachedDistance(q,c);
+		if (!Double.isNaN(cached)) {//worked out when the products were stored,no histogram needs reading
+			cacheHits.increment();
+			double d = labels+cached;
+			return (d <= limit) ? d : Double.POSITIVE_INFINITY;
+		}
+		//largest squared histogram distance that still keeps the total within limit
+		double histLimit = (limit-labels)*(limit-labels)-meta;
+		if (q.coarseHistogramBound(c) > histLimit) {
+			coarsePruned.increment();
+			return Double.POSITIVE_INFINITY;
+		}
+		double hist = c.squaredHistogramDistance(queryHist,q.getSquaredNorm(),histLimit);
+		if (hist > histLimit) {
+			abandoned.increment();
+			return Double.POSITIVE_INFINITY;
+		}
+		return labels+Math.sqrt(meta+hist);
+	}
+
+	/**
+	 * The k candidates nearest to the query,each one only scored against the current k-th best
+	 * @param query
+	 * @param candidates
+	 * @param k
+	 * @return List<Product> nearest first
+	 */
+	public List<Product> nearest(Product query,List<Product> candidates,int k) {
+		List<Product> found = new ArrayList<>();
+		if (k < 1) {
+			return found;
+		}
+		for (int id : scan(query,candidates,-1,k).sorted()) {
+			found.add(candidates.get(id));
+		}
+		return found;
+	}
+
+	/**
+	 * The k smallest distances from one candidate to all the others
+	 * @param candidates
+	 * @param target position of the query in candidates,it is not compared with itself
+	 * @param k
+	 * @return double[] nearest first
+	 */
+	public double[] nearestDistances(List<Product> candidates,int target,int k) {
+		if (k < 1) {
+			return new double[0];
+		}
+		return scan(candidates.get(target),candidates,target,k).sortedDistances();
+	}
+
+	private NearestHeap scan(Product query,List<Product> candidates,int skip,int k) {
+		NearestHeap best = new NearestHeap(k);
+		double[] queryHist = query.getFeatures().getRgbHistogram();
+		for (int j = 0; j<candidates.size(); j++) {
+			if (j == skip) {
+				continue;
+			}
+			double limit = best.limit(Double.POSITIVE_INFINITY);
+			double d = distance(query,queryHist,candidates.get(j),limit);
+			if (d <= limit) {
+				best.offer(d,j);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Share of the pairs scored that were dropped before their full distance was known
+	 * @return double
+	 */
+	public double getPruningRate() {
+		long total = pairs.sum();
+		return (total == 0) ? 0 : (double)(metadataPruned.sum()+coarsePruned.sum()+abandoned.sum())/total;
+	}
+
+	/**
+	 * Sets all the counters back to 0
+	 */
+	public void resetCounters() {
+		pairs.reset();
+		metadataPruned.reset();
+		coarsePruned.reset();
+		abandoned.reset();
+		cacheHits.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "pruned " + String.format("%.3f",getPruningRate()) + " of " + pairs.sum() + " pairs"
+				+ " [metadata " + metadataPruned.sum() + "] [coarse " + coarsePruned.sum() + "] [abandoned " + abandoned.sum() + "]"
+				+ " [from cache " + cacheHits.sum() + "]";
+	}
+
+	//Getters
+	public long getPairs() {
+		return pairs.sum();
+	}
+	public long getMetadataPruned() {
+		return metadataPruned.sum();
+	}
+	public long getCoarsePruned() {
+		return coarsePruned.sum();
+	}
+	public long getAbandoned() {
+		return abandoned.sum();
+	}
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+}
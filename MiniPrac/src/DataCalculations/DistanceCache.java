@@ -0,0 +1,168 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import Storage.Features;
+
+/**
+ * Remembers the distance between every pair of stored products' features so it is only ever worked out once
+ * Each added Features gets the next ordinal. The first tileThreshold ordinals are kept in a triangular float matrix,
+ * row i holding the distances to ordinals below i and filled as soon as i is added.
+ * Past that the full matrix would be too big,so pairs involving later ordinals live in square tiles
+ * that are only allocated and filled as the pairs are asked for.
+ * Removed ordinals are only marked,their rows are never used again.
+ * Adding and removing must not overlap distance lookups from other threads
+ */
+public class DistanceCache {
+	public static final int DEFAULT_TILE_THRESHOLD = 2048;//8MB of triangular rows
+	private static final int TILE = 128;//side of a tile
+
+	private final int tileThreshold;
+	private final Map<Features,Integer> ordinals = new IdentityHashMap<>();//live features only
+	private final List<Features> features = new ArrayList<>();//features of each ordinal,null once removed
+	private float[] rows = new float[0];//row i starts at i*(i-1)/2
+	//tile rows for the ordinals past tileThreshold,each holding the tiles of one band of TILE ordinals
+	private final List<AtomicReferenceArray<float[]>> tiles = new ArrayList<>();
+
+	public DistanceCache() {
+		this(DEFAULT_TILE_THRESHOLD);
+	}
+
+	/**
+	 * Constructor
+	 * @param tileThreshold number of products kept in the filled triangular matrix before switching to tiles
+	 */
+	public DistanceCache(int tileThreshold) {
+		this.tileThreshold = Math.max(0,tileThreshold);
+	}
+
+	/**
+	 * Gives features an ordinal and fills their row while the triangular matrix still has room
+	 * @param f
+	 */
+	public synchronized void add(Features f) {
+		if (f == null || ordinals.containsKey(f)) {
+			return;
+		}
+		int ord = features.size();
+		features.add(f);
+		ordinals.put(f,ord);
+		if (ord < tileThreshold) {
+			long base = (long)ord*(ord-1)/2;
+			if (base+ord > rows.length) {
+				rows = Arrays.copyOf(rows,(int)Math.min(Math.max(base+ord,2L*rows.length),(long)tileThreshold*(tileThreshold-1)/2));
+			}
+			for (int j = 0; j<ord; j++) {
+				Features other = features.get(j);
+				rows[(int)(base+j)] = (other == null) ? Float.NaN : (float)KNN.rawDistance(f,other);
+			}
+		} else if ((ord-tileThreshold)/TILE == tiles.size()) {
+			//a new band of tiles,one per TILE ordinals up to and including this band
+			tiles.add(new AtomicReferenceArray<>((ord+TILE)/TILE+1));
+		}
+	}
+
+	/**
+	 * Marks the ordinal of features as removed
+	 * @param f
+	 * @return true if the features were in the cache
+	 */
+	public synchronized boolean remove(Features f) {
+		Integer ord = ordinals.remove(f);
+		if (ord == null) {
+			return false;
+		}
+		features.set(ord,null);
+		return true;
+	}
+
+	/**
+	 * Distance between two features,from the cache when both have an ordinal
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public double distance(Features a,Features b) {
+		Integer oa = ordinals.get(a);
+		Integer ob = (oa == null) ? null : ordinals.get(b);
+		if (ob == null) {
+			return KNN.rawDistance(a,b);
+		}
+		int i = Math.max(oa,ob), j = Math.min(oa,ob);
+		if (i == j) {
+			return 0;
+		}
+		if (i < tileThreshold) {
+			return rows[(int)((long)i*(i-1)/2+j)];
+		}
+		float[] tile = tile(i,j);
+		int at = (i%TILE)*TILE+(j%TILE);
+		float d = tile[at];
+		if (Float.isNaN(d)) {
+			//two threads may both work it out,they write the same value
+			d = (float)KNN.rawDistance(a,b);
+			tile[at] = d;
+		}
+		return d;
+	}
+
+	/**
+	 * Distance between two features only if the cache already holds it,nothing is worked out or allocated
+	 * @param a
+	 * @param b
+	 * @return the distance,or NaN if either has no ordinal or the pair's tile was not filled yet
+	 */
+	public double cachedDistance(Features a,Features b) {
+		Integer oa = ordinals.get(a);
+		Integer ob = (oa == null) ? null : ordinals.get(b);
+		if (ob == null) {
+			return Double.NaN;
+		}
+		int i = Math.max(oa,ob), j = Math.min(oa,ob);
+		if (i == j) {
+			return 0;
+		}
+		if (i < tileThreshold) {
+			return rows[(int)((long)i*(i-1)/2+j)];
+		}
+		float[] tile = tiles.get((i-tileThreshold)/TILE).get(j/TILE);
+		return (tile == null) ? Double.NaN : tile[(i%TILE)*TILE+(j%TILE)];
+	}
+
+	/**
+	 * The tile holding pair (i,j) with i past tileThreshold,allocating it the first time
+	 */
+	private float[] tile(int i,int j) {
+		AtomicReferenceArray<float[]> band = tiles.get((i-tileThreshold)/TILE);
+		float[] tile = band.get(j/TILE);
+		if (tile == null) {
+			float[] fresh = new float[TILE*TILE];
+			Arrays.fill(fresh,Float.NaN);
+			tile = band.compareAndSet(j/TILE,null,fresh) ? fresh : band.get(j/TILE);
+		}
+		return tile;
+	}
+
+	/**
+	 * Number of live features in the cache
+	 * @return int
+	 */
+	public synchronized int size() {
+		return ordinals.size();
+	}
+
+	/**
+	 * Removes everything from the cache
+	 */
+	public synchronized void clear() {
+		ordinals.clear();
+		features.clear();
+		rows = new float[0];
+		tiles.clear();
+	}
+}
@@ -0,0 +1,102 @@
+package DataCalculations;
+
+import Storage.Features;
+
+/**
+ * Ways of comparing the gray histograms of two products
+ * The histograms are normalised so their bins sum to 1. Every metric gives 0 for identical histograms,
+ * KNN.computeDistance then combines the result with the gray and size differences as sqrt(meta^2 + histogram^2)
+ */
+public enum DistanceMetric {
+	/**
+	 * Straight line distance between the histograms,at most sqrt(2)
+	 */
+	EUCLIDEAN {
+		@Override
+		public double histogramDistance(double[] a,double[] b) {
+			return Math.sqrt(HistogramKernels.INSTANCE.squaredDistance(a,b));
+		}
+
+		@Override
+		public double squaredHistogramDistance(Features a,Features b) {
+			return a.squaredHistogramDistance(b);//one dot product against the precomputed norms
+		}
+	},
+	/**
+	 * Half the chi-square distance,between 0 and 1. Differences in sparse bins count for more than in full ones.
+	 * It sums squared differences,so it breaks the triangle inequality
+	 */
+	CHI_SQUARE {
+		@Override
+		public double histogramDistance(double[] a,double[] b) {
+			return 0.5*HistogramKernels.INSTANCE.chiSquare(a,b);
+		}
+
+		@Override
+		public boolean isMetric() {
+			return false;
+		}
+	},
+	/**
+	 * Bhattacharyya (Hellinger) distance sqrt(1 - sum of sqrt(a*b)),between 0 and 1
+	 */
+	BHATTACHARYYA {
+		@Override
+		public double histogramDistance(double[] a,double[] b) {
+			return Math.sqrt(Math.max(0,1-HistogramKernels.INSTANCE.bhattacharyya(a,b)));
+		}
+	},
+	/**
+	 * 1 minus the histogram intersection,the share of pixels the two histograms do not have in common
+	 */
+	INTERSECTION {
+		@Override
+		public double histogramDistance(double[] a,double[] b) {
+			return Math.max(0,1-HistogramKernels.INSTANCE.intersection(a,b));
+		}
+	},
+	/**
+	 * 1-D earth mover's distance,how many gray levels the pixels of one histogram have to move to make the other
+	 * In one dimension it is the sum of the differences between the cumulative histograms,between 0 and 255.
+	 * Unlike the others it knows neighbouring bins are close,so a slightly darker image is only slightly further away
+	 */
+	EMD {
+		@Override
+		public double histogramDistance(double[] a,double[] b) {
+			double carried = 0;//pixels still to be moved past the current bin
+			double sum = 0;
+			for (int i = 0; i<a.length; i++) {
+				carried += a[i]-b[i];
+				sum += Math.abs(carried);
+			}
+			return sum;
+		}
+	};
+
+	/**
+	 * Distance between two histograms
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double histogramDistance(double[] a,double[] b);
+
+	/**
+	 * Whether distances obey the triangle inequality,VPTree and HNSWIndex scan every product when they do not
+	 * @return boolean
+	 */
+	public boolean isMetric() {
+		return true;
+	}
+
+	/**
+	 * Square of the histogram distance between two features
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public double squaredHistogramDistance(Features a,Features b) {
+		double d = histogramDistance(a.getRgbHistogram(),b.getRgbHistogram());
+		return d*d;
+	}
+}
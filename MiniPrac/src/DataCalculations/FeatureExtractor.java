@@ -0,0 +1,333 @@
+package DataCalculations;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import javax.imageio.ImageIO;
+
+import Storage.Features;
+
+/**
+ * Computes Features from raw decoded pixels without needing JavaFX
+ * Works on BufferedImages or plain ARGB int arrays so batch jobs can run in a plain JVM.
+ * Given the same pixels it gives exactly the same Features as ImageProcessor.extractFeatures,
+ * since ImageProcessor uses this same sampling kernel
+ */
+public class FeatureExtractor {
+	//All images are sampled at this scale to help improve feature extraction
+	public static final int RESIZED_WIDTH = 100;
+	public static final int RESIZED_HEIGHT = 100;
+	//below this many source pixels read,splitting into bands costs more than it saves
+	public static final int PARALLEL_THRESHOLD = 1<<18;
+	//a band is not split any further once it reads fewer source pixels than this
+	private static final int BAND_PIXELS = 1<<15;
+	//The perceptual hash compares neighbouring blocks of a HASH_COLS x HASH_ROWS grid,giving 64 bits
+	public static final int HASH_COLS = 9;
+	public static final int HASH_ROWS = 8;
+	//how many samples fall in each hash block
+	private static final int[] BLOCK_COUNTS = new int[HASH_COLS*HASH_ROWS];
+	static {
+		for (int y = 0; y<RESIZED_HEIGHT; y++) {
+			for (int x = 0; x<RESIZED_WIDTH; x++) {
+				BLOCK_COUNTS[hashBlock(x,y)]++;
+			}
+		}
+	}
+
+	/**
+	 * Something that can hand over one row of ARGB pixels at a time
+	 */
+	public interface RowSource {
+		/**
+		 * Fills row with the ARGB pixels of the given row
+		 * @param y row relative to the top of the image/region
+		 * @param row buffer at least as long as the image is wide
+		 */
+		void readRow(int y,int[] row);
+	}
+
+	/**
+	 * Extracts features of an image given as packed ARGB ints
+	 * @param argb pixel array
+	 * @param offset index of the top-left pixel
+	 * @param scanline distance between rows in the array
+	 * @param width
+	 * @param height
+	 * @return Features
+	 */
+	public static Features extract(int[] argb,int offset,int scanline,int width,int height) {
+		return extract((y,row) -> System.arraycopy(argb,offset+y*scanline,row,0,width),width,height);
+	}
+
+	/**
+	 * Extracts features of a whole BufferedImage
+	 * @param img
+	 * @return Features
+	 */
+	public static Features extract(BufferedImage img) {
+		return extract(img,0,0,img.getWidth(),img.getHeight());
+	}
+
+	/**
+	 * Extracts features of a region of a BufferedImage without copying it out
+	 * @param img
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return Features
+	 */
+	public static Features extract(BufferedImage img,int x,int y,int width,int height) {
+		//getRGB always gives non-premultiplied sRGB ARGB,whatever the raster layout is
+		return extract((row,buf) -> img.getRGB(x,y+row,width,1,buf,0,width),width,height);
+	}
+
+	/**
+	 * Decodes an image file with ImageIO and extracts its features
+	 * @param file
+	 * @return Features
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public static Features extract(File file) throws IOException {
+		return extract(decode(file));
+	}
+
+	/**
+	 * Decodes an image file with ImageIO
+	 * @param file
+	 * @return BufferedImage
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public static BufferedImage decode(File file) throws IOException {
+		BufferedImage img = ImageIO.read(file);
+		if (img == null) {
+			throw new IOException("Unsupported image format: " + file);
+		}
+		return img;
+	}
+
+	/**
+	 * Samples the image straight into the histogram at RESIZED_WIDTH x RESIZED_HEIGHT
+	 * using nearest neighbour source pixels
+	 * @param rows where the pixels come from
+	 * @param width width of the source
+	 * @param height height of the source
+	 * @return Features
+	 */
+	public static Features extract(RowSource rows,int width,int height) {
+		int[] hist = new int[256];
+		int[] blockSums = new int[HASH_COLS*HASH_ROWS];
+		long TGray = sampleBand(rows,sampleColumns(width),width,height,0,RESIZED_HEIGHT,hist,blockSums);
+		return toFeatures(hist,TGray,blockSums,RESIZED_WIDTH,RESIZED_HEIGHT);
+	}
+
+	/**
+	 * Same as extract(BufferedImage) but splits the image into row bands that are sampled in parallel
+	 * @param img
+	 * @return Features
+	 */
+	public static Features extractParallel(BufferedImage img) {
+		return extractParallel(img,0,0,img.getWidth(),img.getHeight());
+	}
+
+	/**
+	 * Same as extract(BufferedImage,x,y,width,height) but the region's row bands are sampled in parallel
+	 * getRGB only reads the raster so the bands can share the image
+	 * @param img
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return Features
+	 */
+	public static Features extractParallel(BufferedImage img,int x,int y,int width,int height) {
+		return extractParallel((row,buf) -> img.getRGB(x,y+row,width,1,buf,0,width),width,height,ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Fork/join version of extract,each band builds its own histogram and gray total which get merged at the end
+	 * Small images stay sequential since they are not worth splitting
+	 * @param rows must be safe to read from several threads at once
+	 * @param width width of the source
+	 * @param height height of the source
+	 * @param pool pool the bands run in
+	 * @return Features,identical to extract
+	 */
+	public static Features extractParallel(RowSource rows,int width,int height,ForkJoinPool pool) {
+		if ((long)width*RESIZED_HEIGHT < PARALLEL_THRESHOLD) {
+			return extract(rows,width,height);
+		}
+		BandTask task = new BandTask(rows,sampleColumns(width),width,height,0,RESIZED_HEIGHT);
+		BandTask result = pool.invoke(task);
+		return toFeatures(result.hist,result.TGray,result.blockSums,RESIZED_WIDTH,RESIZED_HEIGHT);
+	}
+
+	/**
+	 * Samples resized rows fromY up to toY into hist
+	 * @param rows
+	 * @param srcXs source column of each resized column
+	 * @param width width of the source
+	 * @param height height of the source
+	 * @param fromY first resized row
+	 * @param toY one past the last resized row
+	 * @param hist histogram that gets added to
+	 * @param blockSums gray totals of the hash blocks that get added to
+	 * @return sum of the gray levels sampled
+	 */
+	private static long sampleBand(RowSource rows,int[] srcXs,int width,int height,int fromY,int toY,int[] hist,int[] blockSums) {
+		int[] srcRow = new int[width];//reused for every source row
+		long TGray = 0;
+		int lastY = -1;
+		for (int y = fromY; y<toY; y++) {
+			int srcY = sampleRow(y,height);
+			if (srcY != lastY) {//neighbouring rows can sample the same source row
+				rows.readRow(srcY,srcRow);
+				lastY = srcY;
+			}
+			for (int x = 0; x<RESIZED_WIDTH; x++) {
+				int gray = grayOf(srcRow[srcXs[x]]);
+				hist[gray]++; // Forming color histogram
+				TGray += gray;
+				blockSums[hashBlock(x,y)] += gray;
+			}
+		}
+		return TGray;
+	}
+
+	/**
+	 * One band of resized rows,halved until the band is small enough to sample directly
+	 */
+	private static class BandTask extends RecursiveTask<BandTask> {
+		private static final long serialVersionUID = 1L;
+		private final transient RowSource rows;//tasks are never serialized,the pixels stay where they are
+		private final int[] srcXs;
+		private final int width, height, fromY, toY;
+		private int[] hist;//partial histogram of this band
+		private int[] blockSums;//partial hash block totals of this band
+		private long TGray;//partial gray total of this band
+
+		BandTask(RowSource rows,int[] srcXs,int width,int height,int fromY,int toY) {
+			this.rows = rows;
+			this.srcXs = srcXs;
+			this.width = width;
+			this.height = height;
+			this.fromY = fromY;
+			this.toY = toY;
+		}
+
+		@Override
+		protected BandTask compute() {
+			if (toY-fromY <= 1 || (long)(toY-fromY)*width <= BAND_PIXELS) {
+				hist = new int[256];
+				blockSums = new int[HASH_COLS*HASH_ROWS];
+				TGray = sampleBand(rows,srcXs,width,height,fromY,toY,hist,blockSums);
+				return this;
+			}
+			int mid = (fromY+toY)>>>1;
+			BandTask top = new BandTask(rows,srcXs,width,height,fromY,mid);
+			BandTask bottom = new BandTask(rows,srcXs,width,height,mid,toY);
+			top.fork();
+			BandTask merged = bottom.compute();
+			BandTask other = top.join();
+			//merging the two halves,counts are integers so the order does not matter
+			for (int i = 0; i<256; i++) {
+				merged.hist[i] += other.hist[i];
+			}
+			for (int i = 0; i<merged.blockSums.length; i++) {
+				merged.blockSums[i] += other.blockSums[i];
+			}
+			merged.TGray += other.TGray;
+			return merged;
+		}
+	}
+
+	/**
+	 * Source column each resized column samples from
+	 * @param width width of the source image
+	 * @return int[] of RESIZED_WIDTH source x coordinates
+	 */
+	public static int[] sampleColumns(int width) {
+		int[] srcXs = new int[RESIZED_WIDTH];
+		for (int x = 0; x<RESIZED_WIDTH; x++) {
+			srcXs[x] = (int)((x/(double)RESIZED_WIDTH)*width);
+		}
+		return srcXs;
+	}
+
+	/**
+	 * Source row a resized row samples from
+	 * @param y resized row
+	 * @param height height of the source image
+	 * @return int
+	 */
+	public static int sampleRow(int y,int height) {
+		return (int)((y/(double)RESIZED_HEIGHT)*height);
+	}
+
+	/**
+	 * Gray level of a packed ARGB pixel,same value the per-pixel JavaFX Color path gives
+	 * @param argb
+	 * @return int between 0 and 255
+	 */
+	public static int grayOf(int argb) {
+		int red = (argb>>16) & 0xFF;
+		int green = (argb>>8) & 0xFF;
+		int blue = argb & 0xFF;
+		return (red+green+blue) / 3; // Average color
+	}
+
+	/**
+	 * Hash block a resized sample falls in
+	 * @param x resized column
+	 * @param y resized row
+	 * @return index into a HASH_COLS x HASH_ROWS grid,row by row
+	 */
+	public static int hashBlock(int x,int y) {
+		return (y*HASH_ROWS/RESIZED_HEIGHT)*HASH_COLS + x*HASH_COLS/RESIZED_WIDTH;
+	}
+
+	/**
+	 * Difference hash of a grid of block means,one bit per pair of horizontal neighbours
+	 * Set when the left block is darker than the right one,so resizing or recompressing an image barely changes it
+	 * @param means HASH_COLS x HASH_ROWS block means,row by row
+	 * @return 64 bit hash
+	 */
+	public static long dHash(double[] means) {
+		long hash = 0;
+		int bit = 0;
+		for (int by = 0; by<HASH_ROWS; by++) {
+			for (int bx = 0; bx<HASH_COLS-1; bx++) {
+				if (means[by*HASH_COLS+bx] < means[by*HASH_COLS+bx+1]) {
+					hash |= 1L<<bit;
+				}
+				bit++;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Turns the gray level counts into normalized Features
+	 * @param hist
+	 * @param TGray
+	 * @param blockSums gray totals of the hash blocks
+	 * @param width
+	 * @param height
+	 * @return Features
+	 */
+	public static Features toFeatures(int[] hist,long TGray,int[] blockSums,int width,int height) {
+		double avgGray = TGray/(double)(width*height);
+		double[] rgbHist =new double[256]; // simplistic grayscale histogram
+		//Normalize histogram to get frequency distribution
+		for (int i = 0; i<256; i++) {
+			rgbHist[i] = hist[i]/(double)(width*height);
+		}
+		double[] means = new double[blockSums.length];
+		for (int i = 0; i<means.length; i++) {
+			means[i] = blockSums[i]/(double)BLOCK_COUNTS[i];
+		}
+		return new Features(avgGray,rgbHist,width,height,dHash(means));
+	}
+}
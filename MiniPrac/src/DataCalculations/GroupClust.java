@@ -16,10 +16,17 @@ public class GroupClust {
 	private int k; // number of clusters
     private List<Product> products;
     private Map<Integer,List<Product>> clusts;
+    private DistanceMetric metric;//how histograms are compared when assigning products to centroids
 
     public Map<Integer,List<Product>> getClusters() {
 		return clusts;
 	}
+    public DistanceMetric getMetric() {
+		return metric;
+	}
+    public void setMetric(DistanceMetric metric) {
+		this.metric = metric;
+	}
 
 	/**
      * Constructor
@@ -27,9 +34,20 @@ public class GroupClust {
      * @param products
      */
     public GroupClust(int k,List<Product> products) {
+        this(k,products,KNN.getMetric());
+    }
+
+    /**
+     * Constructor
+     * @param k
+     * @param products
+     * @param metric how histograms are compared
+     */
+    public GroupClust(int k,List<Product> products,DistanceMetric metric) {
         this.k = k;
         this.products = products;
         this.clusts = new HashMap<>();
+        this.metric = metric;
     }
 
     /**
@@ -92,7 +110,7 @@ public class GroupClust {
         int index = 0;
 
         for (int i = 0; i < centroids.size(); i++) {
-            double dist = KNN.computeDistance(f, centroids.get(i));
+            double dist = KNN.computeDistance(f, centroids.get(i), metric);
             if (dist < minDist) {
                 minDist = dist;
                 index = i;
@@ -214,7 +232,7 @@ public class GroupClust {
         double minDistance = Double.MAX_VALUE;
         Product closest = null;
         for (Product p : products) {//For all find distance of features between each other until you find the 1 with smallest
-            double dist = KNN.computeDistance(centroid,p.getFeatures());
+            double dist = KNN.computeDistance(centroid,p.getFeatures(),metric);//the same metric products were assigned with
             if (dist<minDistance) {
                 minDistance = dist;
                 closest = p;
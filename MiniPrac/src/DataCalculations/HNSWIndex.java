@@ -0,0 +1,417 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Approximate nearest neighbour index for large catalogs (hierarchical navigable small world graph)
+ * Every product is a node linked to about M of its nearest products on each layer it is in.
+ * Upper layers hold exponentially fewer nodes and are used to get close to the query quickly,
+ * then the bottom layer is searched best first keeping efSearch candidates.
+ * Larger M,efConstruction and efSearch give better recall for slower inserts and lookups.
+ * Removed products are only marked so the graph stays connected,they are never returned.
+ * The links are only meaningful for a true metric,so with one like CHI_SQUARE every live product is compared instead
+ */
+public class HNSWIndex implements ProductIndex {
+	public static final int DEFAULT_M = 16;
+	public static final int DEFAULT_EF_CONSTRUCTION = 200;
+	public static final int DEFAULT_EF_SEARCH = 64;
+
+	/**
+	 * One product in the graph
+	 */
+	private static class Node {
+		private final Product product;
+		private final Features feats;
+		private final int[][] links;//links[layer] holds the ids of the linked nodes
+		private final int[] linkCount;//links in use on each layer
+		private boolean deleted;
+
+		private Node(Product product,int level,int m,int maxM0) {
+			this.product = product;
+			this.feats = product.getFeatures();
+			this.links = new int[level+1][];
+			this.linkCount = new int[level+1];
+			for (int l = 0; l<=level; l++) {
+				links[l] = new int[(l == 0 ? maxM0 : m)+1];//one spare while a full list is being pruned
+			}
+		}
+	}
+
+	/**
+	 * Binary heap of (distance,id) pairs,the largest distance on top unless it is a min heap
+	 */
+	private static class Heap {
+		private final double sign;//-1 turns the max heap into a min heap
+		private double[] keys = new double[16];
+		private int[] ids = new int[16];
+		private int size;
+
+		private Heap(boolean min) {
+			this.sign = min ? -1 : 1;
+		}
+
+		private void push(double distance,int id) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys,size*2);
+				ids = Arrays.copyOf(ids,size*2);
+			}
+			double key = sign*distance;
+			int i = size++;
+			while (i>0 && keys[(i-1)/2]<key) {
+				keys[i] = keys[(i-1)/2];
+				ids[i] = ids[(i-1)/2];
+				i = (i-1)/2;
+			}
+			keys[i] = key;
+			ids[i] = id;
+		}
+
+		private int pop() {
+			int top = ids[0];
+			size--;
+			double key = keys[size];
+			int id = ids[size];
+			int i = 0;
+			while (true) {
+				int c = 2*i+1;
+				if (c>=size) {
+					break;
+				}
+				if (c+1<size && keys[c+1]>keys[c]) {
+					c++;
+				}
+				if (keys[c]<=key) {
+					break;
+				}
+				keys[i] = keys[c];
+				ids[i] = ids[c];
+				i = c;
+			}
+			keys[i] = key;
+			ids[i] = id;
+			return top;
+		}
+
+		private double topDistance() {
+			return sign*keys[0];
+		}
+	}
+
+	private final int m;//links per node on the upper layers
+	private final int maxM0;//links per node on the bottom layer
+	private final double levelMult;//spreads nodes over the layers
+	private int efConstruction;//candidates kept while linking a new node
+	private int efSearch;//candidates kept while answering a query
+	private final Random random = new Random(42);
+	private final List<Node> nodes = new ArrayList<>();
+	private final Map<Product,Integer> ids = new IdentityHashMap<>();//live products only
+	private int entry = -1;//node the searches start from,on the top layer
+	private int topLevel = -1;
+	private int[] visited = new int[64];//visited[id] == visitMark when id was seen by the current search
+	private int visitMark;
+
+	public HNSWIndex() {
+		this(DEFAULT_M,DEFAULT_EF_CONSTRUCTION,DEFAULT_EF_SEARCH);
+	}
+
+	/**
+	 * Constructor
+	 * @param m links per node,2m on the bottom layer
+	 * @param efConstruction candidates kept while inserting
+	 * @param efSearch candidates kept while searching,at least k is always used
+	 */
+	public HNSWIndex(int m,int efConstruction,int efSearch) {
+		if (m < 2) {
+			throw new IllegalArgumentException("M must be at least 2");
+		}
+		this.m = m;
+		this.maxM0 = 2*m;
+		this.levelMult = 1/Math.log(m);
+		this.efConstruction = Math.max(1,efConstruction);
+		this.efSearch = Math.max(1,efSearch);
+	}
+
+	@Override
+	public synchronized void add(Product p) {
+		if (p.getFeatures() == null || ids.containsKey(p)) {
+			return;
+		}
+		int level = (int)(-Math.log(1-random.nextDouble())*levelMult);
+		int id = nodes.size();
+		Node node = new Node(p,level,m,maxM0);
+		nodes.add(node);
+		ids.put(p,id);
+		if (visited.length <= id) {
+			visited = Arrays.copyOf(visited,visited.length*2);
+		}
+		if (entry == -1) {
+			entry = id;
+			topLevel = level;
+			return;
+		}
+		int ep = entry;
+		for (int l = topLevel; l>level; l--) {
+			ep = greedy(node.feats,ep,l);
+		}
+		double epDist = distance(node.feats,ep);
+		for (int l = Math.min(level,topLevel); l>=0; l--) {
+			Heap found = searchLayer(node.feats,ep,epDist,efConstruction,l,false);
+			int[] near = drainNearestFirst(found);
+			ep = near[0];
+			epDist = distance(node.feats,ep);
+			int[] chosen = selectNeighbours(node.feats,near,m);
+			System.arraycopy(chosen,0,node.links[l],0,chosen.length);
+			node.linkCount[l] = chosen.length;
+			for (int n : chosen) {
+				link(n,id,l);
+			}
+		}
+		if (level > topLevel) {
+			topLevel = level;
+			entry = id;
+		}
+	}
+
+	/**
+	 * Adds a link from node from to node to,pruning from's links if it has too many
+	 * @param from
+	 * @param to
+	 * @param layer
+	 */
+	private void link(int from,int to,int layer) {
+		Node n = nodes.get(from);
+		int max = (layer == 0) ? maxM0 : m;
+		int[] links = n.links[layer];
+		links[n.linkCount[layer]++] = to;
+		if (n.linkCount[layer] <= max) {
+			return;
+		}
+		//too many,keep the ones the heuristic picks as seen from this node
+		Heap h = new Heap(false);
+		for (int i = 0; i<n.linkCount[layer]; i++) {
+			h.push(distance(n.feats,links[i]),links[i]);
+		}
+		int[] chosen = selectNeighbours(n.feats,drainNearestFirst(h),max);
+		System.arraycopy(chosen,0,links,0,chosen.length);
+		n.linkCount[layer] = chosen.length;
+	}
+
+	/**
+	 * Picks up to max neighbours from candidates sorted nearest first
+	 * A candidate is skipped when it is closer to an already picked neighbour than to the base,
+	 * which spreads the links out in different directions instead of bunching them together
+	 * @param base
+	 * @param candidates
+	 * @param max
+	 * @return int[]
+	 */
+	private int[] selectNeighbours(Features base,int[] candidates,int max) {
+		int[] chosen = new int[Math.min(max,candidates.length)];
+		int count = 0;
+		for (int c : candidates) {
+			if (count == chosen.length) {
+				break;
+			}
+			double d = distance(base,c);
+			boolean keep = true;
+			for (int i = 0; i<count && keep; i++) {
+				keep = KNN.computeDistance(nodes.get(c).feats,nodes.get(chosen[i]).feats) >= d;
+			}
+			if (keep) {
+				chosen[count++] = c;
+			}
+		}
+		return Arrays.copyOf(chosen,count);
+	}
+
+	/**
+	 * Moves to ever closer linked nodes on one layer until none is closer
+	 * @param query
+	 * @param ep
+	 * @param layer
+	 * @return id of the closest node found
+	 */
+	private int greedy(Features query,int ep,int layer) {
+		double best = distance(query,ep);
+		boolean moved = true;
+		while (moved) {
+			moved = false;
+			Node n = nodes.get(ep);
+			for (int i = 0; i<n.linkCount[layer]; i++) {
+				int c = n.links[layer][i];
+				double d = distance(query,c);
+				if (d < best) {
+					best = d;
+					ep = c;
+					moved = true;
+				}
+			}
+		}
+		return ep;
+	}
+
+	/**
+	 * Best first search of one layer keeping the ef closest nodes found
+	 * @param query
+	 * @param ep
+	 * @param epDist
+	 * @param ef
+	 * @param layer
+	 * @param liveOnly leave removed nodes out of the results,they are still walked through
+	 * @return the ef closest nodes,furthest on top
+	 */
+	private Heap searchLayer(Features query,int ep,double epDist,int ef,int layer,boolean liveOnly) {
+		visitMark++;
+		if (visitMark == 0) {//wrapped around,old marks could be mistaken for new ones
+			Arrays.fill(visited,0);
+			visitMark = 1;
+		}
+		visited[ep] = visitMark;
+		Heap candidates = new Heap(true);
+		Heap results = new Heap(false);
+		candidates.push(epDist,ep);
+		if (!liveOnly || !nodes.get(ep).deleted) {
+			results.push(epDist,ep);
+		}
+		while (candidates.size > 0) {
+			if (results.size >= ef && candidates.topDistance() > results.topDistance()) {
+				break;//every candidate left is further than everything kept
+			}
+			Node n = nodes.get(candidates.pop());
+			for (int i = 0; i<n.linkCount[layer]; i++) {
+				int c = n.links[layer][i];
+				if (visited[c] == visitMark) {
+					continue;
+				}
+				visited[c] = visitMark;
+				double d = distance(query,c);
+				if (results.size < ef || d < results.topDistance()) {
+					candidates.push(d,c);
+					if (!liveOnly || !nodes.get(c).deleted) {
+						results.push(d,c);
+						if (results.size > ef) {
+							results.pop();
+						}
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Empties a max heap into an array,nearest first
+	 */
+	private static int[] drainNearestFirst(Heap h) {
+		int[] out = new int[h.size];
+		for (int i = out.length-1; i>=0; i--) {
+			out[i] = h.pop();
+		}
+		return out;
+	}
+
+	private double distance(Features query,int id) {
+		return KNN.computeDistance(query,nodes.get(id).feats);
+	}
+
+	@Override
+	public synchronized boolean remove(Product p) {
+		Integer id = ids.remove(p);
+		if (id == null) {
+			return false;
+		}
+		nodes.get(id).deleted = true;
+		return true;
+	}
+
+	@Override
+	public synchronized List<Product> nearest(Features query,int k,double maxDistance) {
+		List<Product> found = new ArrayList<>();
+		if (entry == -1 || k < 1) {
+			return found;
+		}
+		if (!KNN.getMetric().isMetric()) {
+			return scan(query,k,maxDistance);
+		}
+		int ep = entry;
+		for (int l = topLevel; l>0; l--) {
+			ep = greedy(query,ep,l);
+		}
+		int ef = (int)Math.min(nodes.size(),Math.max((long)efSearch,k));
+		Heap results = searchLayer(query,ep,distance(query,ep),ef,0,true);
+		//the heap gives the furthest first,so the results are filled from the back
+		int[] near = new int[results.size];
+		double[] dists = new double[results.size];
+		for (int i = near.length-1; i>=0; i--) {
+			dists[i] = results.topDistance();
+			near[i] = results.pop();
+		}
+		for (int i = 0; i<near.length && found.size()<k && dists[i]<=maxDistance; i++) {
+			found.add(nodes.get(near[i]).product);
+		}
+		return found;
+	}
+
+	/**
+	 * The k live products nearest to query found by comparing it with all of them
+	 * @param query
+	 * @param k
+	 * @param maxDistance
+	 * @return List<Product>
+	 */
+	private List<Product> scan(Features query,int k,double maxDistance) {
+		NearestHeap best = new NearestHeap(Math.min(k,nodes.size()));
+		for (int id = 0; id<nodes.size(); id++) {
+			if (nodes.get(id).deleted) {
+				continue;
+			}
+			double d = distance(query,id);
+			if (d <= best.limit(maxDistance)) {
+				best.offer(d,id);
+			}
+		}
+		List<Product> found = new ArrayList<>();
+		for (int id : best.sorted()) {
+			found.add(nodes.get(id).product);
+		}
+		return found;
+	}
+
+	@Override
+	public synchronized int size() {
+		return ids.size();
+	}
+
+	@Override
+	public synchronized void clear() {
+		nodes.clear();
+		ids.clear();
+		entry = -1;
+		topLevel = -1;
+	}
+
+	//Getters and setters
+	public int getM() {
+		return m;
+	}
+	public synchronized int getEfConstruction() {
+		return efConstruction;
+	}
+	public synchronized void setEfConstruction(int efConstruction) {
+		this.efConstruction = Math.max(1,efConstruction);
+	}
+	public synchronized int getEfSearch() {
+		return efSearch;
+	}
+	public synchronized void setEfSearch(int efSearch) {
+		this.efSearch = Math.max(1,efSearch);
+	}
+}
@@ -0,0 +1,152 @@
+package DataCalculations;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The loops every histogram comparison comes down to
+ * INSTANCE is picked once at startup: VectorKernels when it was compiled and the jdk.incubator.vector module is available
+ * (run with --add-modules jdk.incubator.vector),otherwise the plain ScalarKernels.
+ * VectorKernels lives in the vector source folder so the rest of the tree compiles without the module
+ */
+public abstract class HistogramKernels {
+	public static final HistogramKernels INSTANCE = choose();
+
+	/**
+	 * Uses the vector kernels if their class can be loaded
+	 * @return HistogramKernels
+	 */
+	private static HistogramKernels choose() {
+		try {
+			//loaded by name so this class still loads when the module is missing
+			return (HistogramKernels) Class.forName("DataCalculations.VectorKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new ScalarKernels();
+		}
+	}
+
+	/**
+	 * Sum of a[i]*b[i]
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double dot(double[] a,double[] b);
+
+	/**
+	 * Sum of a[offA+i]*b[offB+i] for i below length
+	 * @param a
+	 * @param offA
+	 * @param b
+	 * @param offB
+	 * @param length
+	 * @return double
+	 */
+	public abstract double dot(float[] a,int offA,float[] b,int offB,int length);
+
+	/**
+	 * Sum of a[offA+i]*b[i] over all of b
+	 * @param a
+	 * @param offA
+	 * @param b
+	 * @return double
+	 */
+	public abstract double dot(float[] a,int offA,double[] b);
+
+	/**
+	 * Sum of a.get(offA+i)*b.get(offB+i) for i below length,read in place from buffers such as a memory-mapped file
+	 * The vector API can only load from arrays or preview memory segments on this JDK,so every implementation uses this loop,
+	 * blocked the same way as ScalarKernels
+	 * @param a
+	 * @param offA
+	 * @param b
+	 * @param offB
+	 * @param length
+	 * @return double
+	 */
+	public double dot(FloatBuffer a,int offA,FloatBuffer b,int offB,int length) {
+		double sum = 0;
+		int k = 0;
+		for (; k+32<=length; k += 32) {
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int i = k; i<k+32; i += 4) {
+				s0 += a.get(offA+i)*b.get(offB+i);
+				s1 += a.get(offA+i+1)*b.get(offB+i+1);
+				s2 += a.get(offA+i+2)*b.get(offB+i+2);
+				s3 += a.get(offA+i+3)*b.get(offB+i+3);
+			}
+			sum += (s0+s1)+(s2+s3);
+		}
+		for (; k<length; k++) {
+			sum += a.get(offA+k)*b.get(offB+k);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sum of a.get(offA+i)*b[i] over all of b,read in place from the buffer
+	 * @param a
+	 * @param offA
+	 * @param b
+	 * @return double
+	 */
+	public double dot(FloatBuffer a,int offA,double[] b) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i+3<b.length; i += 4) {
+			s0 += a.get(offA+i)*b[i];
+			s1 += a.get(offA+i+1)*b[i+1];
+			s2 += a.get(offA+i+2)*b[i+2];
+			s3 += a.get(offA+i+3)*b[i+3];
+		}
+		for (; i<b.length; i++) {
+			s0 += a.get(offA+i)*b[i];
+		}
+		return (s0+s1)+(s2+s3);
+	}
+
+	/**
+	 * Sum of (a[i]-b[i])^2
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double squaredDistance(double[] a,double[] b);
+
+	/**
+	 * Sum of |a[i]-b[i]|
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double l1Distance(double[] a,double[] b);
+
+	/**
+	 * Sum of min(a[i],b[i]),how much two histograms have in common
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double intersection(double[] a,double[] b);
+
+	/**
+	 * Sum of (a[i]-b[i])^2/(a[i]+b[i]),bins empty in both are skipped
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double chiSquare(double[] a,double[] b);
+
+	/**
+	 * Sum of sqrt(a[i]*b[i]),the Bhattacharyya coefficient,1 for identical normalised histograms
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double bhattacharyya(double[] a,double[] b);
+
+	/**
+	 * Name of the implementation,to see which one was picked
+	 * @return String
+	 */
+	public abstract String getName();
+}
@@ -0,0 +1,195 @@
+package DataCalculations;
+
+import Storage.Features;
+
+/**
+ * Summed-area tables over quantized gray levels of one shelf image
+ * Built once per image,after that the Features of any rectangle are answered with 4 lookups per bin
+ * instead of rescanning the pixels of every crop.
+ * The image is sampled onto a grid of at most MAX_GRID cells a side so the tables stay small,
+ * which makes region Features a close approximation of ImageProcessor.extractFeatures rather than an exact match.
+ * Region histograms only have one value per bin spread over the bin's gray levels,so they are only compared
+ * with features put through quantize,never straight against exact histograms
+ */
+public class IntegralHistogram {
+	public static final int DEFAULT_BINS = 32;
+	//Longest side of the analysis grid
+	public static final int MAX_GRID = 256;
+
+	private final int bins;//number of quantized gray levels
+	private final int binShift;//gray >> binShift gives the bin
+	private final int srcWidth, srcHeight;//size of the image in pixels
+	private final int gridWidth, gridHeight;//size of the sampled grid
+	private final int stride;//gridWidth+1,length of one table row
+	private final int[] counts;//one (gridHeight+1)x(gridWidth+1) table per bin,one after the other
+	private final int[] graySums;//summed-area table of the gray levels
+
+	/**
+	 * Builds the tables with DEFAULT_BINS gray levels
+	 * @param rows where the pixels come from
+	 * @param width width of the image
+	 * @param height height of the image
+	 */
+	public IntegralHistogram(FeatureExtractor.RowSource rows,int width,int height) {
+		this(rows,width,height,DEFAULT_BINS);
+	}
+
+	/**
+	 * Builds the tables
+	 * @param rows where the pixels come from
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param bins power of two between 1 and 256
+	 */
+	public IntegralHistogram(FeatureExtractor.RowSource rows,int width,int height,int bins) {
+		if (bins<1 || bins>256 || Integer.bitCount(bins) != 1) {
+			throw new IllegalArgumentException("Bins must be a power of two up to 256");
+		}
+		this.bins = bins;
+		this.binShift = Integer.numberOfTrailingZeros(256/bins);
+		this.srcWidth = width;
+		this.srcHeight = height;
+		double scale = Math.min(1.0,MAX_GRID/(double)Math.max(width,height));
+		this.gridWidth = Math.max(1,(int)(width*scale));
+		this.gridHeight = Math.max(1,(int)(height*scale));
+		this.stride = gridWidth+1;
+		int tableSize = stride*(gridHeight+1);
+		this.counts = new int[bins*tableSize];
+		this.graySums = new int[tableSize];
+
+		int[] srcXs = new int[gridWidth];
+		for (int gx = 0; gx<gridWidth; gx++) {
+			srcXs[gx] = (int)((gx/(double)gridWidth)*width);
+		}
+		int[] srcRow = new int[width];
+		int[] rowBins = new int[gridWidth];
+		for (int gy = 0; gy<gridHeight; gy++) {
+			rows.readRow((int)((gy/(double)gridHeight)*height),srcRow);
+			int rowGray = 0;
+			int above = gy*stride, here = (gy+1)*stride;
+			for (int gx = 0; gx<gridWidth; gx++) {
+				int gray = FeatureExtractor.grayOf(srcRow[srcXs[gx]]);
+				rowBins[gx] = gray>>binShift;
+				rowGray += gray;
+				graySums[here+gx+1] = graySums[above+gx+1]+rowGray;
+			}
+			//each bin's table is the table above plus the running count along this row
+			for (int b = 0; b<bins; b++) {
+				int base = b*tableSize;
+				int running = 0;
+				for (int gx = 0; gx<gridWidth; gx++) {
+					if (rowBins[gx] == b) {
+						running++;
+					}
+					counts[base+here+gx+1] = counts[base+above+gx+1]+running;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Features of a rectangle of the image,given in image pixel coordinates
+	 * Each bin's share is spread evenly over the gray levels it covers so the histogram still has 256 entries
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return Features with the same sampled size as ImageProcessor.extractFeatures
+	 */
+	public Features regionFeatures(int x,int y,int width,int height) {
+		//converting to grid cells,always keeping at least one cell
+		int gx0 = clamp((int)Math.floor(x*(double)gridWidth/srcWidth),0,gridWidth-1);
+		int gy0 = clamp((int)Math.floor(y*(double)gridHeight/srcHeight),0,gridHeight-1);
+		int gx1 = clamp((int)Math.ceil((x+width)*(double)gridWidth/srcWidth),gx0+1,gridWidth);
+		int gy1 = clamp((int)Math.ceil((y+height)*(double)gridHeight/srcHeight),gy0+1,gridHeight);
+		int area = (gx1-gx0)*(gy1-gy0);
+
+		int tableSize = stride*(gridHeight+1);
+		int levels = 256/bins;//gray levels per bin
+		double[] rgbHist = new double[256];
+		for (int b = 0; b<bins; b++) {
+			int count = sum(counts,b*tableSize,gx0,gy0,gx1,gy1);
+			double share = count/((double)area*levels);
+			for (int g = b*levels; g<(b+1)*levels; g++) {
+				rgbHist[g] = share;
+			}
+		}
+		double avgGray = sum(graySums,0,gx0,gy0,gx1,gy1)/(double)area;
+		return new Features(avgGray,rgbHist,FeatureExtractor.RESIZED_WIDTH,FeatureExtractor.RESIZED_HEIGHT,
+				regionHash(gx0,gy0,gx1,gy1));
+	}
+
+	/**
+	 * Exact features brought down to this index's bins,each bin's share spread over its gray levels like regionFeatures does
+	 * so the histograms of the two can be compared
+	 * @param feats
+	 * @return Features with the same gray level,size and hash
+	 */
+	public Features quantize(Features feats) {
+		double[] hist = feats.getRgbHistogram();
+		int levels = 256/bins;
+		double[] spread = new double[256];
+		for (int b = 0; b<bins; b++) {
+			double share = 0;
+			for (int g = b*levels; g<(b+1)*levels; g++) {
+				share += hist[g];
+			}
+			share /= levels;
+			for (int g = b*levels; g<(b+1)*levels; g++) {
+				spread[g] = share;
+			}
+		}
+		return feats.hasPerceptualHash()
+				? new Features(feats.getAvgGray(),spread,feats.getWidth(),feats.getHeight(),feats.getPerceptualHash())
+				: new Features(feats.getAvgGray(),spread,feats.getWidth(),feats.getHeight());
+	}
+
+	/**
+	 * Perceptual hash of grid cells [gx0,gx1)x[gy0,gy1),block means come straight from the gray table
+	 * @return 64 bit dHash
+	 */
+	private long regionHash(int gx0,int gy0,int gx1,int gy1) {
+		int cols = FeatureExtractor.HASH_COLS, rows = FeatureExtractor.HASH_ROWS;
+		double[] means = new double[cols*rows];
+		for (int by = 0; by<rows; by++) {
+			//blocks narrower than a cell still get one cell so there is always something to average
+			int y0 = gy0+(gy1-gy0)*by/rows;
+			int y1 = Math.max(y0+1,gy0+(gy1-gy0)*(by+1)/rows);
+			for (int bx = 0; bx<cols; bx++) {
+				int x0 = gx0+(gx1-gx0)*bx/cols;
+				int x1 = Math.max(x0+1,gx0+(gx1-gx0)*(bx+1)/cols);
+				means[by*cols+bx] = sum(graySums,0,x0,y0,x1,y1)/(double)((x1-x0)*(y1-y0));
+			}
+		}
+		return FeatureExtractor.dHash(means);
+	}
+
+	/**
+	 * Sum of a summed-area table over grid cells [gx0,gx1)x[gy0,gy1)
+	 */
+	private int sum(int[] table,int base,int gx0,int gy0,int gx1,int gy1) {
+		return table[base+gy1*stride+gx1]-table[base+gy0*stride+gx1]
+				-table[base+gy1*stride+gx0]+table[base+gy0*stride+gx0];
+	}
+
+	private static int clamp(int v,int min,int max) {
+		return Math.max(min,Math.min(max,v));
+	}
+
+	//Getters
+	public int getBins() {
+		return bins;
+	}
+	public int getWidth() {
+		return srcWidth;
+	}
+	public int getHeight() {
+		return srcHeight;
+	}
+	public int getGridWidth() {
+		return gridWidth;
+	}
+	public int getGridHeight() {
+		return gridHeight;
+	}
+}
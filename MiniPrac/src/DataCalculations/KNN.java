@@ -1,14 +1,22 @@
 package DataCalculations;
 
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.stream.IntStream;
 import Storage.Features;
 import Storage.Product;
+import Storage.QuantizedFeatureStore;
+import Storage.SymbolTable;
 /**
  * Utility class for KNN algorithms
  */
 public class KNN {	
+	//distances of stored products that were already worked out,null to always work them out
+	private static volatile DistanceCache distanceCache;
+	//how histograms are compared when no metric is given
+	private static volatile DistanceMetric metric = DistanceMetric.EUCLIDEAN;
+	//scores Euclidean neighbour searches,its counters show how many pairs it skipped
+	private static final CascadeScorer CASCADE = new CascadeScorer();
+	
 	/**
      * A helper method to find the average distance for a given k
      * Tests how well a certain value of k works for K-NN by calculating the average similarity distance across all products
@@ -17,47 +25,123 @@ public class KNN {
      * @return
      */
     public static double AvgDist(List<Product> allProducts,int k) {
-        double totalDistance = 0;//the sum of distances between products and their neighbors
-        int count = 0;//the total number of neighbor comparisons made
-        
-        //looping through each product we want to find neighbors for
-        for (Product target : allProducts) {
-            List<Product> neighbors = new ArrayList<>(allProducts);//making a copy of products
-            neighbors.remove(target); //don't compare product with itself
-            
-            //it sorts the neighbors list in increasing order of similarity distance to target
-            neighbors.sort(Comparator.comparingDouble((Product p)-> computeDistance(target,p)));//for every neighbor p, sort based on the output of computeDistance(target, p)
-            List<Product> kNeighbors = neighbors.subList(0,Math.min(k, neighbors.size()));//chooses the nearest products to target if k is not greater than list of products/neighbors
-            
-            //sums up total distance of all neighbors to target and captures how many neighbors(loops) there are.
-            for (Product neighbor : kNeighbors) {
-                totalDistance += computeDistance(target,neighbor);
-                count++;
+        if (k<1) {
+            return Double.NaN;//no neighbours to average
+        }
+        return AvgDists(allProducts,k)[k-1]; //lower is better
+    }
+
+    /**
+     * Average distance from each product to its k nearest neighbours for every k from 1 to maxK in one pass
+     * Each target keeps only its maxK nearest distances in a bounded max-heap,
+     * and every k is then read off the prefix sums of those sorted distances.
+     * Targets are independent so they are worked out in parallel
+     * @param allProducts
+     * @param maxK
+     * @return double[] where entry k-1 is the average distance for k
+     */
+    public static double[] AvgDists(List<Product> allProducts,int maxK) {
+        return AvgDists(allProducts,maxK,metric);
+    }
+
+    /**
+     * AvgDists comparing histograms with the given metric
+     * @param allProducts
+     * @param maxK
+     * @param metric
+     * @return double[] where entry k-1 is the average distance for k
+     */
+    public static double[] AvgDists(List<Product> allProducts,int maxK,DistanceMetric metric) {
+        if (maxK<1) {
+            return new double[0];
+        }
+        int n = allProducts.size();
+        //sorted nearest distances of every target
+        double[][] nearest = new double[n][];
+        IntStream.range(0,n).parallel().forEach(t -> nearest[t] = nearestDistances(allProducts,t,maxK,metric));
+
+        double[] totalDistance = new double[maxK];//the sum of distances between products and their neighbors for each k
+        long[] count = new long[maxK];//the total number of neighbor comparisons made for each k
+        for (double[] d : nearest) {
+            double prefix = 0;
+            for (int k = 1; k<=maxK; k++) {
+                //a target with fewer than k neighbours uses all of them,as sorting the whole list did
+                if (k<=d.length) {
+                    prefix += d[k-1];
+                }
+                totalDistance[k-1] += prefix;
+                count[k-1] += Math.min(k,d.length);
+            }
+        }
+        double[] avg = new double[maxK];
+        for (int k = 0; k<maxK; k++) {
+            avg[k] = totalDistance[k]/count[k];
+        }
+        return avg;
+    }
+
+    /**
+     * The maxK smallest distances from one product to all the others,nearest first
+     * @param allProducts
+     * @param target position of the product in allProducts
+     * @param maxK
+     * @param metric
+     * @return double[]
+     */
+    private static double[] nearestDistances(List<Product> allProducts,int target,int maxK,DistanceMetric metric) {
+        int k = Math.min(maxK,allProducts.size()-1);//no product has more neighbours than the others
+        if (k<1) {
+            return new double[0];
+        }
+        if (metric == DistanceMetric.EUCLIDEAN) {
+            return CASCADE.nearestDistances(allProducts,target,k);//most pairs never need their histograms
+        }
+        Product t = allProducts.get(target);
+        NearestHeap best = new NearestHeap(k);
+        for (int j = 0; j<allProducts.size(); j++) {
+            if (j == target) {
+                continue;//don't compare product with itself
+            }
+            double d = computeDistance(t,allProducts.get(j),metric);
+            if (d <= best.limit(Double.POSITIVE_INFINITY)) {
+                best.offer(d,j);
             }
         }
-        return (totalDistance/count); //lower is better
+        return best.sortedDistances();
     }
     
     /**
      * method to find the best k for our K-NN
+     * Every k is scored from the same single pass over the products
      * @param allProducts
      * @param maxK
      * @return
      */
     public static int findOptimalK(List<Product> allProducts,int maxK) {
+        return findOptimalK(allProducts,maxK,metric);
+    }
+
+    /**
+     * findOptimalK comparing histograms with the given metric
+     * @param allProducts
+     * @param maxK
+     * @param metric
+     * @return
+     */
+    public static int findOptimalK(List<Product> allProducts,int maxK,DistanceMetric metric) {
         double bestScore = Double.MAX_VALUE;//used to track the lowest average distance found so far
         int bestK = 1;//guess or random k
+        if (maxK<1) {
+            return bestK;
+        }
+        double[] scores = AvgDists(allProducts,maxK,metric);
 
-        //testing all reasonable values of k(from 1-10 usually)
+        //after trying all values of k,choose the one that gave the lowest average distance
         for (int k = 1; k<=maxK; k++) {
-            double score = AvgDist(allProducts,k);
-            System.out.println("k = " +k+ ", avg distance = " +score);
-
-            //after trying all values of k,choose the one that gave the lowest average distance
-            if (score<bestScore) {
-                bestScore = score;
+            if (scores[k-1]<bestScore) {
+                bestScore = scores[k-1];
                 bestK = k;
-            }   
+            }
         }
         return bestK;
     }
@@ -69,38 +153,136 @@ public class KNN {
      * @return
      */
     public static double computeDistance(Product p1,Product p2) {
+        return computeDistance(p1,p2,metric);
+    }
+
+    /**
+     * computeDistance between two products comparing their histograms with the given metric
+     * @param p1
+     * @param p2
+     * @param metric
+     * @return
+     */
+    public static double computeDistance(Product p1,Product p2,DistanceMetric metric) {
+        double featureDistance = computeDistance(p1.getFeatures(),p2.getFeatures(),metric);
+        //total distance
+        return labelDistance(p1,p2)+featureDistance;
+    }
+
+    /**
+     * The name and shelf part of computeDistance,1 for each that differs
+     * Names and shelf IDs are compared by their SymbolTable ids,which ignore case,and a missing shelf matches nothing
+     * @param p1
+     * @param p2
+     * @return double
+     */
+    static double labelDistance(Product p1,Product p2) {
         double NameScore =1;
         double ShelfScore =  1;       
         //if names or shelf IDs match then score = 0 (they're similar).
-        if(p1.getName().equalsIgnoreCase(p2.getName())) {
+        if(p1.getNameSymbol() == p2.getNameSymbol() && p1.getNameSymbol() != SymbolTable.NONE) {
         	NameScore = 0;
         }
-        if(p1.getShelfID().equalsIgnoreCase(p2.getShelfID())) {
+        if(p1.getShelfSymbol() == p2.getShelfSymbol() && p1.getShelfSymbol() != SymbolTable.NONE) {
         	ShelfScore = 0 ;
         }
-        double featureDistance = computeDistance(p1.getFeatures(),p2.getFeatures());
-        //total distance
-        return NameScore+ShelfScore+featureDistance;
+        return NameScore+ShelfScore;
     }
   
   /**
-   * compute Euclidean distance between two features using all possible feature attributes
+   * compute the distance between two features using all possible feature attributes,comparing histograms with KNN's metric
    * @param f1
    * @param f2
    * @return
    */
     public static double computeDistance(Features f1,Features f2) {
+        return computeDistance(f1,f2,metric);
+    }
+
+    /**
+     * compute distance between two features as sqrt(gray^2 + width^2 + height^2 + histogram^2)
+     * Euclidean distances come from the distance cache when there is one,the cache only holds those
+     * @param f1
+     * @param f2
+     * @param metric how the histograms are compared
+     * @return double
+     */
+    public static double computeDistance(Features f1,Features f2,DistanceMetric metric) {
+        DistanceCache cache = distanceCache;
+        if (cache != null && metric == DistanceMetric.EUCLIDEAN) {
+            return cache.distance(f1,f2);
+        }
+        return rawDistance(f1,f2,metric);
+    }
+
+    /**
+     * Euclidean computeDistance without looking in the distance cache
+     * @param f1
+     * @param f2
+     * @return double
+     */
+    static double rawDistance(Features f1,Features f2) {
+        return rawDistance(f1,f2,DistanceMetric.EUCLIDEAN);
+    }
+
+    /**
+     * Gray and size are subtracted directly,for Euclidean the histogram part comes from the precomputed norms
+     */
+    static double rawDistance(Features f1,Features f2,DistanceMetric metric) {
         double grayDiff = f1.getAvgGray()-f2.getAvgGray();
         double widthDiff = f1.getWidth()-f2.getWidth();
         double heightDiff = f1.getHeight()-f2.getHeight();
 
-        double histDiff = 0;
-        double[] h1 = f1.getRgbHistogram();
-        double[] h2 = f2.getRgbHistogram();
-        for (int i = 0; i<h1.length; i++) {
-            histDiff += Math.pow(h1[i]-h2[i],2);
-        }
-        return Math.sqrt(Math.pow(grayDiff,2) + Math.pow(widthDiff,2) + Math.pow(heightDiff,2) + histDiff);
+        double histDiff = metric.squaredHistogramDistance(f1,f2);
+        return Math.sqrt(grayDiff*grayDiff + widthDiff*widthDiff + heightDiff*heightDiff + histDiff);
+    }
+
+    /**
+     * Sets the metric used when none is given
+     * The product indexes use it too,so they have to be cleared and refilled after changing it
+     * @param metric
+     */
+    public static void setMetric(DistanceMetric metric) {
+        KNN.metric = metric;
+    }
+    public static DistanceMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Sets the cache every computeDistance call looks in first
+     * @param cache null to stop caching
+     */
+    public static void setDistanceCache(DistanceCache cache) {
+        distanceCache = cache;
+    }
+    public static DistanceCache getDistanceCache() {
+        return distanceCache;
+    }
+    /**
+     * The scorer every Euclidean neighbour search uses
+     * Pairs the distance cache already holds are read from it,the rest are dropped before their histograms are read where possible
+     * @return CascadeScorer
+     */
+    public static CascadeScorer getCascade() {
+        return CASCADE;
+    }
+
+    /**
+     * Distance between full precision features and an ordinal of a quantized catalog
+     * Only the catalog side is decoded so the query loses no precision
+     * @param query
+     * @param catalog
+     * @param ord
+     * @return double
+     */
+    public static double asymmetricDistance(Features query,QuantizedFeatureStore catalog,int ord) {
+        double grayDiff = query.getAvgGray()-catalog.getAvgGray(ord);
+        double widthDiff = query.getWidth()-catalog.getWidth(ord);
+        double heightDiff = query.getHeight()-catalog.getHeight(ord);
+
+        double histDiff = catalog.squaredHistogramDistance(ord,query.getRgbHistogram(),query.getSquaredNorm());
+        return Math.sqrt(grayDiff*grayDiff + widthDiff*widthDiff + heightDiff*heightDiff + histDiff);
     }
     
 }
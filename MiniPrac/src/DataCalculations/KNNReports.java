@@ -0,0 +1,327 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+import Storage.Features;
+import Storage.Product;
+import Storage.QuantizedFeatureStore;
+/**
+ * Measures KNN's searches against each other: quantized against exact,an index against a full scan,and every metric
+ * Only used to pick settings,the searches themselves stay in KNN
+ */
+public class KNNReports {
+	//bytes of one histogram kept as doubles in Features
+	private static final long HISTOGRAM_BYTES = 256L*Double.BYTES;
+
+	/**
+	 * How fast a distance metric is and how well it keeps differently named products apart
+	 */
+	public static class MetricReport {
+		private final DistanceMetric metric;
+		private final int products;
+		private final double nanosPerPair;//time for one computeDistance between features
+		//mean distance between differently named products over the mean between same named ones,higher separates better
+		private final double separation;
+		private final double histogramSeparation;//the same for the histogram part alone
+		private final double nearestAccuracy;//share of products whose nearest other product has the same name
+
+		public MetricReport(DistanceMetric metric,int products,double nanosPerPair,double separation,double histogramSeparation,double nearestAccuracy) {
+			this.metric = metric;
+			this.products = products;
+			this.nanosPerPair = nanosPerPair;
+			this.separation = separation;
+			this.histogramSeparation = histogramSeparation;
+			this.nearestAccuracy = nearestAccuracy;
+		}
+
+		@Override
+		public String toString() {
+			return metric + ": " + String.format("%.1f",nanosPerPair) + "ns per pair"
+					+ " [separation " + String.format("%.2f",separation) + ", histogram only " + String.format("%.2f",histogramSeparation) + "]"
+					+ " [nearest same name " + String.format("%.3f",nearestAccuracy) + " over " + products + " products]";
+		}
+
+		//Getters
+		public DistanceMetric getMetric() {
+			return metric;
+		}
+		public int getProducts() {
+			return products;
+		}
+		public double getNanosPerPair() {
+			return nanosPerPair;
+		}
+		public double getSeparation() {
+			return separation;
+		}
+		public double getHistogramSeparation() {
+			return histogramSeparation;
+		}
+		public double getNearestAccuracy() {
+			return nearestAccuracy;
+		}
+	}
+
+	/**
+	 * How well searching a quantized catalog agrees with searching the full precision one
+	 */
+	public static class RecallReport {
+		private final int k, queries;
+		private final double recall;//share of the exact k nearest that the quantized search also found
+		private final long exactBytes, quantizedBytes;//histogram memory of the catalog both ways
+		private final long exactNanos, quantizedNanos;//time spent scanning the catalog both ways
+
+		public RecallReport(int k,int queries,double recall,long exactBytes,long quantizedBytes,long exactNanos,long quantizedNanos) {
+			this.k = k;
+			this.queries = queries;
+			this.recall = recall;
+			this.exactBytes = exactBytes;
+			this.quantizedBytes = quantizedBytes;
+			this.exactNanos = exactNanos;
+			this.quantizedNanos = quantizedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "recall@" + k + " = " + String.format("%.3f",recall) + " over " + queries + " queries"
+					+ " [histograms " + exactBytes + "B -> " + quantizedBytes + "B]"
+					+ " [scan " + exactNanos/1000000 + "ms -> " + quantizedNanos/1000000 + "ms]";
+		}
+
+		//Getters
+		public int getK() {
+			return k;
+		}
+		public int getQueries() {
+			return queries;
+		}
+		public double getRecall() {
+			return recall;
+		}
+		public long getExactBytes() {
+			return exactBytes;
+		}
+		public long getQuantizedBytes() {
+			return quantizedBytes;
+		}
+		public long getExactNanos() {
+			return exactNanos;
+		}
+		public long getQuantizedNanos() {
+			return quantizedNanos;
+		}
+	}
+
+    /**
+     * How well an approximate index agrees with an exact scan of the same catalog
+     */
+    public static class IndexReport {
+        private final int k, queries;
+        private final double recall;//share of the exact k nearest the index also returned
+        private final long exactNanos, indexNanos;//total time of the exact scans and of the index lookups
+
+        public IndexReport(int k,int queries,double recall,long exactNanos,long indexNanos) {
+            this.k = k;
+            this.queries = queries;
+            this.recall = recall;
+            this.exactNanos = exactNanos;
+            this.indexNanos = indexNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "recall@" + k + " = " + String.format("%.3f",recall) + " over " + queries + " queries"
+                    + " [per query: scan " + String.format("%.3f",exactNanos/1e6/Math.max(1,queries)) + "ms"
+                    + " -> index " + String.format("%.3f",indexNanos/1e6/Math.max(1,queries)) + "ms]";
+        }
+
+        //Getters
+        public int getK() {
+            return k;
+        }
+        public int getQueries() {
+            return queries;
+        }
+        public double getRecall() {
+            return recall;
+        }
+        public long getExactNanos() {
+            return exactNanos;
+        }
+        public long getIndexNanos() {
+            return indexNanos;
+        }
+    }
+
+    /**
+     * Compares the k nearest products an index returns with the exact k nearest from scanning the catalog
+     * @param index index holding every product of catalog
+     * @param catalog
+     * @param queries
+     * @param k
+     * @return IndexReport
+     */
+    public static IndexReport indexRecall(ProductIndex index,List<Product> catalog,List<Features> queries,int k) {
+        List<Features> feats = new ArrayList<>();
+        List<Product> known = new ArrayList<>();
+        for (Product p : catalog) {
+            if (p.getFeatures() != null) {
+                feats.add(p.getFeatures());
+                known.add(p);
+            }
+        }
+        k = Math.min(k,known.size());
+        if (k < 1 || queries.isEmpty()) {
+            return new IndexReport(k,0,1.0,0,0);
+        }
+        long found = 0, exactNanos = 0, indexNanos = 0;
+        for (Features query : queries) {
+            long start = System.nanoTime();
+            int[] exact = nearest(-1,known.size(),k,j -> KNN.computeDistance(query,feats.get(j)));
+            long mid = System.nanoTime();
+            List<Product> approx = index.nearest(query,k);
+            indexNanos += System.nanoTime()-mid;
+            exactNanos += mid-start;
+            //matched by distance so ties between equally near products do not count as misses
+            double kth = KNN.computeDistance(query,feats.get(exact[k-1]));
+            for (Product p : approx) {
+                if (KNN.computeDistance(query,p.getFeatures()) <= kth) {
+                    found++;
+                }
+            }
+        }
+        return new IndexReport(k,queries.size(),(double)found/((long)queries.size()*k),exactNanos,indexNanos);
+    }
+
+    /**
+     * Compares every metric on the same products,named products are the ground truth (eg. apples against eggs)
+     * The cheapest metric whose separation and nearest accuracy are still good enough is the one to pick
+     * @param allProducts
+     * @return one report per metric
+     */
+    public static List<MetricReport> compareMetrics(List<Product> allProducts) {
+        List<Features> feats = new ArrayList<>();
+        List<Integer> names = new ArrayList<>();//name symbols
+        for (Product p : allProducts) {
+            Features f = p.getFeatures();
+            if (f != null) {
+                //own copies so no metric pays for reading through a store
+                feats.add(new Features(f.getAvgGray(),f.getRgbHistogram(),f.getWidth(),f.getHeight()));
+                names.add(p.getNameSymbol());
+            }
+        }
+        int n = feats.size();
+        List<MetricReport> reports = new ArrayList<>();
+        for (DistanceMetric m : DistanceMetric.values()) {
+            double[][] dist = new double[n][n];
+            long start = System.nanoTime();
+            for (int i = 0; i<n; i++) {
+                for (int j = 0; j<n; j++) {
+                    dist[i][j] = KNN.rawDistance(feats.get(i),feats.get(j),m);
+                }
+            }
+            long nanos = System.nanoTime()-start;
+            double[] same = new double[2], other = new double[2];//sums of the full and histogram distances
+            long sameCount = 0, otherCount = 0, correct = 0;
+            for (int i = 0; i<n; i++) {
+                int best = -1;
+                for (int j = 0; j<n; j++) {
+                    if (i == j) {
+                        continue;
+                    }
+                    double h = m.histogramDistance(feats.get(i).getRgbHistogram(),feats.get(j).getRgbHistogram());
+                    if (names.get(i).equals(names.get(j))) {
+                        same[0] += dist[i][j];
+                        same[1] += h;
+                        sameCount++;
+                    } else {
+                        other[0] += dist[i][j];
+                        other[1] += h;
+                        otherCount++;
+                    }
+                    if (best == -1 || dist[i][j] < dist[i][best]) {
+                        best = j;
+                    }
+                }
+                if (best != -1 && names.get(i).equals(names.get(best))) {
+                    correct++;
+                }
+            }
+            double separation = (other[0]/otherCount)/(same[0]/sameCount);
+            double histogramSeparation = (other[1]/otherCount)/(same[1]/sameCount);
+            reports.add(new MetricReport(m,n,(n == 0) ? 0 : (double)nanos/((long)n*n),separation,histogramSeparation,(n == 0) ? 0 : (double)correct/n));
+        }
+        return reports;
+    }
+
+    /**
+     * Compares the k nearest features of every product found exactly and found in a quantized copy of the catalog
+     * Every product is used as a query against all the others
+     * @param allProducts
+     * @param k
+     * @return RecallReport
+     */
+    public static RecallReport quantizationRecall(List<Product> allProducts,int k) {
+        List<Features> catalog = new ArrayList<>();
+        for (Product p : allProducts) {
+            Features f = p.getFeatures();
+            if (f != null) {
+                //own copies so neither scan reads through a store the other does not use
+                catalog.add(new Features(f.getAvgGray(),f.getRgbHistogram(),f.getWidth(),f.getHeight()));
+            }
+        }
+        int n = catalog.size();
+        QuantizedFeatureStore quantized = new QuantizedFeatureStore(n);
+        for (Features f : catalog) {
+            quantized.add(f.getAvgGray(),f.getRgbHistogram(),f.getWidth(),f.getHeight(),false,0);
+        }
+        k = Math.min(k,n-1);
+        if (k < 1) {
+            return new RecallReport(k,0,1.0,0,0,0,0);
+        }
+
+        long found = 0, exactNanos = 0, quantizedNanos = 0;
+        for (int q = 0; q<n; q++) {
+            Features query = catalog.get(q);
+            long start = System.nanoTime();
+            int[] exact = nearest(q,n,k,j -> KNN.computeDistance(query,catalog.get(j)));
+            long mid = System.nanoTime();
+            int[] approx = nearest(q,n,k,j -> KNN.asymmetricDistance(query,quantized,j));
+            quantizedNanos += System.nanoTime()-mid;
+            exactNanos += mid-start;
+            for (int a : approx) {
+                for (int e : exact) {
+                    if (a == e) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+        }
+        long exactBytes = (long)n*HISTOGRAM_BYTES;
+        return new RecallReport(k,n,(double)found/((long)n*k),exactBytes,quantized.histogramBytes(),exactNanos,quantizedNanos);
+    }
+
+    /**
+     * Positions of the k smallest distances,leaving out the query itself
+     * @param query position of the query,-1 when it is not one of them
+     * @param n
+     * @param k
+     * @param distance distance from the query to each position
+     * @return int[] nearest first
+     */
+    private static int[] nearest(int query,int n,int k,IntToDoubleFunction distance) {
+        NearestHeap best = new NearestHeap(k);
+        for (int j = 0; j<n; j++) {
+            if (j == query) {
+                continue;
+            }
+            double d = distance.applyAsDouble(j);
+            if (d <= best.limit(Double.POSITIVE_INFINITY)) {
+                best.offer(d,j);
+            }
+        }
+        return best.sorted();
+    }
+}
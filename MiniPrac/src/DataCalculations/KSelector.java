@@ -0,0 +1,211 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Picks k for K-NN by leave-one-out: each product is left out in turn and its name is predicted
+ * by a majority vote of its k nearest other products,the k that predicts the most names right wins.
+ * Unlike KNN.findOptimalK this does not just favour k=1. Only features are compared,the name and shelf scores
+ * of KNN.computeDistance would give the answer away.
+ * The maxK nearest of every product are found once in parallel and every k is scored from those same lists.
+ * Large catalogs can be scored on a random sample of products,their neighbours are still searched for in the whole catalog.
+ * The chosen k is kept until enough products have been added or removed since it was picked
+ */
+public class KSelector {
+	public static final int DEFAULT_MAX_K = 10;
+	public static final double DEFAULT_CHURN = 0.1;//share of the catalog that has to change before k is picked again
+
+	private final int maxK;
+	private int sampleSize;//products left out in turn,0 for all of them
+	private double churnThreshold;
+	private DistanceMetric metric;
+	private final Random random = new Random(42);//picks the sample,seeded so runs repeat
+	private int chosenK = -1;//-1 until picked
+	private double[] accuracies = new double[0];//entry k-1 is the share of names k predicted right
+	private int evaluatedSize;//catalog size when k was picked
+	private int changes;//products added or removed since
+
+	public KSelector() {
+		this(DEFAULT_MAX_K);
+	}
+
+	/**
+	 * Constructor
+	 * @param maxK largest k tried
+	 */
+	public KSelector(int maxK) {
+		this.maxK = Math.max(1,maxK);
+		this.churnThreshold = DEFAULT_CHURN;
+		this.metric = KNN.getMetric();
+	}
+
+	/**
+	 * The chosen k,picked again first if the catalog changed too much since last time
+	 * @param catalog
+	 * @return int
+	 */
+	public synchronized int getK(Collection<Product> catalog) {
+		if (chosenK == -1 || changes > churnThreshold*Math.max(1,evaluatedSize)) {
+			select(new ArrayList<>(catalog));
+		}
+		return chosenK;
+	}
+
+	/**
+	 * Picks k from the catalog now
+	 * @param catalog
+	 * @return int
+	 */
+	public synchronized int select(List<Product> catalog) {
+		List<Product> usable = new ArrayList<>();
+		for (Product p : catalog) {
+			if (p.getFeatures() != null) {
+				usable.add(p);
+			}
+		}
+		int n = usable.size();
+		int[] queries = sample(n);
+		int k = Math.min(maxK,n-1);
+		double[] correct = new double[Math.max(0,k)];
+		if (k >= 1) {
+			DistanceMetric m = metric;
+			//nearest neighbours of each left out product,worked out once for every k
+			int[][] neighbours = new int[queries.length][];
+			IntStream.range(0,queries.length).parallel().forEach(q -> neighbours[q] = nearest(usable,queries[q],k,m));
+			for (int q = 0; q<queries.length; q++) {
+				vote(usable,queries[q],neighbours[q],correct);
+			}
+			for (int i = 0; i<k; i++) {
+				correct[i] /= queries.length;
+			}
+		}
+		int best = 1;
+		for (int i = 1; i<k; i++) {
+			if (correct[i] > correct[best-1]) {//ties keep the smaller k
+				best = i+1;
+			}
+		}
+		accuracies = correct;
+		chosenK = best;
+		evaluatedSize = n;
+		changes = 0;
+		return best;
+	}
+
+	/**
+	 * Positions of the products to leave out,a reservoir sample when the catalog is bigger than sampleSize
+	 * @param n
+	 * @return int[]
+	 */
+	private int[] sample(int n) {
+		if (sampleSize <= 0 || n <= sampleSize) {
+			return IntStream.range(0,n).toArray();
+		}
+		int[] reservoir = new int[sampleSize];
+		for (int i = 0; i<n; i++) {
+			if (i < sampleSize) {
+				reservoir[i] = i;
+			} else {
+				int j = random.nextInt(i+1);
+				if (j < sampleSize) {
+					reservoir[j] = i;
+				}
+			}
+		}
+		return reservoir;
+	}
+
+	/**
+	 * The k products nearest to one of them by features alone,nearest first
+	 */
+	private static int[] nearest(List<Product> products,int query,int k,DistanceMetric metric) {
+		NearestHeap best = new NearestHeap(k);
+		Features f = products.get(query).getFeatures();
+		for (int j = 0; j<products.size(); j++) {
+			if (j == query) {
+				continue;
+			}
+			double d = KNN.computeDistance(f,products.get(j).getFeatures(),metric);
+			if (d <= best.limit(Double.POSITIVE_INFINITY)) {
+				best.offer(d,j);
+			}
+		}
+		return best.sorted();
+	}
+
+	/**
+	 * Adds 1 to correct[k-1] for every k whose majority vote gives the left out product's name
+	 * The vote is counted up one neighbour at a time,a tie goes to the name that got there first,which is the nearer one
+	 */
+	private static void vote(List<Product> products,int query,int[] neighbours,double[] correct) {
+		int name = products.get(query).getNameSymbol();
+		Map<Integer,Integer> votes = new HashMap<>();
+		int leader = -1, leaderVotes = 0;
+		for (int i = 0; i<neighbours.length; i++) {
+			int label = products.get(neighbours[i]).getNameSymbol();
+			int v = votes.merge(label,1,Integer::sum);
+			if (v > leaderVotes) {
+				leader = label;
+				leaderVotes = v;
+			}
+			if (leader == name) {
+				correct[i]++;
+			}
+		}
+	}
+
+	/**
+	 * Counts products added to or removed from the catalog towards picking k again
+	 * @param count
+	 */
+	public synchronized void recordChanges(int count) {
+		changes += count;
+	}
+
+	/**
+	 * Forgets the chosen k so the next getK picks it again
+	 */
+	public synchronized void invalidate() {
+		chosenK = -1;
+	}
+
+	//Getters and setters
+	public int getMaxK() {
+		return maxK;
+	}
+	/**
+	 * Share of the left out names each k predicted right the last time k was picked
+	 * @return double[] where entry k-1 is for k
+	 */
+	public synchronized double[] getAccuracies() {
+		return accuracies.clone();
+	}
+	public synchronized int getSampleSize() {
+		return sampleSize;
+	}
+	public synchronized void setSampleSize(int sampleSize) {
+		this.sampleSize = Math.max(0,sampleSize);
+	}
+	public synchronized double getChurnThreshold() {
+		return churnThreshold;
+	}
+	public synchronized void setChurnThreshold(double churnThreshold) {
+		this.churnThreshold = churnThreshold;
+	}
+	public synchronized DistanceMetric getMetric() {
+		return metric;
+	}
+	public synchronized void setMetric(DistanceMetric metric) {
+		this.metric = metric;
+		this.chosenK = -1;//k was picked with the old metric
+	}
+}
@@ -0,0 +1,119 @@
+package DataCalculations;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.ToDoubleBiFunction;
+
+import Storage.ArrayFeatureStore;
+import Storage.FeatureStore;
+import Storage.Features;
+
+/**
+ * Warmed up timing of the histogram distance code,standing in for JMH which this project has no build for
+ * Every measurement scores all pairs of a set of random normalised histograms,runs WARMUP passes untimed
+ * and reports the median of PASSES timed ones in nanoseconds per pair:
+ * 1. the whole Euclidean distance the old way with Math.pow on every bin,against KNN.rawDistance,
+ *    which uses the precomputed norms and one dot product,on the features' own histograms and on store views
+ * 2. each HistogramKernels loop in ScalarKernels against HistogramKernels.INSTANCE,
+ *    which is VectorKernels when run with --add-modules jdk.incubator.vector and the vector folder compiled
+ * Run it from MiniPrac as java [--add-modules jdk.incubator.vector] -cp bin DataCalculations.KernelBenchmark [histograms]
+ */
+public class KernelBenchmark {
+	public static final int DEFAULT_HISTOGRAMS = 500;
+	private static final int WARMUP = 5;
+	private static final int PASSES = 5;
+	private static double sink;//every result is added here so the work is not optimised away
+
+	public static void main(String[] args) {
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_HISTOGRAMS;
+		Random random = new Random(42);
+		Features[] own = new Features[n];
+		Features[] views = new Features[n];
+		double[][] hists = new double[n][];
+		FeatureStore store = new ArrayFeatureStore(n);
+		for (int i = 0; i<n; i++) {
+			hists[i] = randomHistogram(random);
+			own[i] = new Features(random.nextDouble()*255,hists[i],100+random.nextInt(50),100+random.nextInt(50));
+			views[i] = new Features(own[i].getAvgGray(),hists[i],own[i].getWidth(),own[i].getHeight());
+			views[i].attach(store);
+		}
+		HistogramKernels scalar = new ScalarKernels();
+		HistogramKernels chosen = HistogramKernels.INSTANCE;
+		System.out.println(n + " histograms," + (long)n*n + " pairs per pass,median of " + PASSES + " passes after " + WARMUP + " warm-up passes");
+
+		System.out.println("Euclidean computeDistance");
+		report("Math.pow on every bin",time(own,KernelBenchmark::powDistance));
+		report("norms and dot product",time(own,(a,b) -> KNN.rawDistance(a,b)));
+		report("norms and dot,store views",time(views,(a,b) -> KNN.rawDistance(a,b)));
+
+		System.out.println("Kernels,scalar against " + chosen.getName());
+		if (chosen instanceof ScalarKernels) {
+			System.out.println("  (vector kernels not loaded,both columns are the scalar loops)");
+		}
+		compare("dot",hists,scalar::dot,chosen::dot);
+		compare("squaredDistance",hists,scalar::squaredDistance,chosen::squaredDistance);
+		compare("l1Distance",hists,scalar::l1Distance,chosen::l1Distance);
+		compare("intersection",hists,scalar::intersection,chosen::intersection);
+		compare("chiSquare",hists,scalar::chiSquare,chosen::chiSquare);
+		compare("bhattacharyya",hists,scalar::bhattacharyya,chosen::bhattacharyya);
+		System.out.println("(checksum " + String.format("%.1f",sink) + ")");
+	}
+
+	/**
+	 * Distance the way KNN.computeDistance worked before the norms were kept,one Math.pow per bin and attribute
+	 */
+	private static double powDistance(Features a,Features b) {
+		double[] ha = a.getRgbHistogram(), hb = b.getRgbHistogram();
+		double histDiff = 0;
+		for (int i = 0; i<ha.length; i++) {
+			histDiff += Math.pow(ha[i]-hb[i],2);
+		}
+		return Math.sqrt(Math.pow(a.getAvgGray()-b.getAvgGray(),2) + Math.pow(a.getWidth()-b.getWidth(),2)
+				+ Math.pow(a.getHeight()-b.getHeight(),2) + histDiff);
+	}
+
+	private static void compare(String name,double[][] hists,ToDoubleBiFunction<double[],double[]> scalar,ToDoubleBiFunction<double[],double[]> chosen) {
+		double s = time(hists,scalar), c = time(hists,chosen);
+		System.out.println(String.format("  %-16s %8.1f ns -> %8.1f ns per pair (%.1fx)",name,s,c,s/c));
+	}
+
+	private static void report(String name,double nanosPerPair) {
+		System.out.println(String.format("  %-28s %8.1f ns per pair",name,nanosPerPair));
+	}
+
+	/**
+	 * Median nanoseconds per pair of scoring every pair of items
+	 */
+	private static <T> double time(T[] items,ToDoubleBiFunction<T,T> distance) {
+		double[] passes = new double[PASSES];
+		for (int p = -WARMUP; p<PASSES; p++) {
+			long start = System.nanoTime();
+			double sum = 0;
+			for (T a : items) {
+				for (T b : items) {
+					sum += distance.applyAsDouble(a,b);
+				}
+			}
+			long nanos = System.nanoTime()-start;
+			sink += sum;
+			if (p >= 0) {
+				passes[p] = (double)nanos/((long)items.length*items.length);
+			}
+		}
+		Arrays.sort(passes);
+		return passes[PASSES/2];
+	}
+
+	private static double[] randomHistogram(Random random) {
+		double[] hist = new double[FeatureStore.BINS];
+		double sum = 0;
+		for (int i = 0; i<hist.length; i++) {
+			hist[i] = random.nextDouble();
+			sum += hist[i];
+		}
+		for (int i = 0; i<hist.length; i++) {
+			hist[i] /= sum;
+		}
+		return hist;
+	}
+}
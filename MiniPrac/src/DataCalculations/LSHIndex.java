@@ -0,0 +1,247 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import Storage.FeatureStore;
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Locality-sensitive hashing index over the colour histograms of products
+ * Each table hashes a histogram to one bit per random hyperplane,the side of the plane it lies on,
+ * so similar histograms tend to land in the same bucket. A query only looks at the products sharing
+ * a bucket with it in some table and ranks those few exactly with KNN.computeDistance.
+ *
+ * Recall against latency is set by:
+ * tables - more tables find more true neighbours and cost more buckets per query,
+ * bits - more bits per table make smaller buckets,fewer candidates but more misses,
+ * probes - 1 also looks in every bucket one bit away from the query's,which recovers near misses for bits more lookups
+ */
+public class LSHIndex implements ProductIndex {
+	public static final int DEFAULT_TABLES = 16;
+	public static final int DEFAULT_BITS = 10;
+	public static final int DEFAULT_PROBES = 1;
+	private static final int MAX_BITS = 31;//signatures are kept in an int
+
+	private int tables;
+	private int bits;
+	private int probes;
+	private final long seed;
+	private double[][] planes;//tables*bits hyperplanes,each summing to 0
+	private List<Map<Integer,List<Product>>> buckets;//one map per table from signature to products
+	private final Map<Product,int[]> signatures = new IdentityHashMap<>();//signature of each product in each table
+
+	public LSHIndex() {
+		this(DEFAULT_TABLES,DEFAULT_BITS,DEFAULT_PROBES);
+	}
+
+	/**
+	 * Constructor
+	 * @param tables number of hash tables
+	 * @param bits hyperplanes per table
+	 * @param probes 0 to look only in the query's own buckets,1 to also look in those one bit away
+	 */
+	public LSHIndex(int tables,int bits,int probes) {
+		this.seed = 42;
+		this.probes = probes;
+		setShape(tables,bits);
+		buckets = emptyBuckets();
+	}
+
+	/**
+	 * Changes the number of tables and bits,rehashing every product already in the index
+	 * @param tables
+	 * @param bits
+	 */
+	public synchronized void configure(int tables,int bits) {
+		setShape(tables,bits);
+		rebuild();
+	}
+
+	/**
+	 * Checks the number of tables and bits and draws the hyperplanes for them
+	 * Private so the constructor can call it without this escaping to an override
+	 */
+	private void setShape(int tables,int bits) {
+		if (tables < 1 || bits < 1 || bits > MAX_BITS) {
+			throw new IllegalArgumentException("Need at least 1 table and between 1 and " + MAX_BITS + " bits");
+		}
+		this.tables = tables;
+		this.bits = bits;
+		Random random = new Random(seed);
+		planes = new double[tables*bits][FeatureStore.BINS];
+		for (double[] plane : planes) {
+			double mean = 0;
+			for (int i = 0; i<plane.length; i++) {
+				plane[i] = random.nextGaussian();
+				mean += plane[i];
+			}
+			mean /= plane.length;
+			//histograms all have positive bins,a plane summing to 0 ignores that shared offset
+			for (int i = 0; i<plane.length; i++) {
+				plane[i] -= mean;
+			}
+		}
+	}
+
+	/**
+	 * One empty bucket map per table
+	 * @return List<Map<Integer,List<Product>>>
+	 */
+	private List<Map<Integer,List<Product>>> emptyBuckets() {
+		List<Map<Integer,List<Product>>> empty = new ArrayList<>();
+		for (int t = 0; t<tables; t++) {
+			empty.add(new HashMap<>());
+		}
+		return empty;
+	}
+
+	/**
+	 * Rehashes every product,the signatures are worked out in parallel
+	 */
+	public synchronized void rebuild() {
+		Product[] all = signatures.keySet().toArray(new Product[0]);
+		int[][] sigs = new int[all.length][];
+		IntStream.range(0,all.length).parallel().forEach(i -> sigs[i] = signature(all[i].getFeatures()));
+		buckets = emptyBuckets();
+		signatures.clear();
+		for (int i = 0; i<all.length; i++) {
+			put(all[i],sigs[i]);
+		}
+	}
+
+	/**
+	 * Signature of a histogram in every table
+	 * @param f
+	 * @return int[]
+	 */
+	private int[] signature(Features f) {
+		double[] hist = f.getRgbHistogram();
+		int[] sig = new int[tables];
+		for (int t = 0; t<tables; t++) {
+			int s = 0;
+			for (int b = 0; b<bits; b++) {
+				if (HistogramKernels.INSTANCE.dot(planes[t*bits+b],hist) >= 0) {
+					s |= 1<<b;
+				}
+			}
+			sig[t] = s;
+		}
+		return sig;
+	}
+
+	private void put(Product p,int[] sig) {
+		signatures.put(p,sig);
+		for (int t = 0; t<tables; t++) {
+			buckets.get(t).computeIfAbsent(sig[t],x -> new ArrayList<>()).add(p);
+		}
+	}
+
+	@Override
+	public synchronized void add(Product p) {
+		if (p.getFeatures() == null || signatures.containsKey(p)) {
+			return;
+		}
+		put(p,signature(p.getFeatures()));
+	}
+
+	@Override
+	public synchronized boolean remove(Product p) {
+		int[] sig = signatures.remove(p);
+		if (sig == null) {
+			return false;
+		}
+		for (int t = 0; t<tables; t++) {
+			List<Product> bucket = buckets.get(t).get(sig[t]);
+			for (int i = 0; i<bucket.size(); i++) {
+				if (bucket.get(i) == p) {
+					bucket.remove(i);
+					break;
+				}
+			}
+			if (bucket.isEmpty()) {
+				buckets.get(t).remove(sig[t]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Products sharing a bucket with the query in any table
+	 * @param query
+	 * @return Set<Product>
+	 */
+	public synchronized Set<Product> candidates(Features query) {
+		Set<Product> found = Collections.newSetFromMap(new IdentityHashMap<>());
+		int[] sig = signature(query);
+		for (int t = 0; t<tables; t++) {
+			Map<Integer,List<Product>> table = buckets.get(t);
+			addBucket(table,sig[t],found);
+			if (probes > 0) {
+				for (int b = 0; b<bits; b++) {
+					addBucket(table,sig[t]^(1<<b),found);
+				}
+			}
+		}
+		return found;
+	}
+
+	private static void addBucket(Map<Integer,List<Product>> table,int sig,Set<Product> found) {
+		List<Product> bucket = table.get(sig);
+		if (bucket != null) {
+			found.addAll(bucket);
+		}
+	}
+
+	@Override
+	public List<Product> nearest(Features query,int k,double maxDistance) {
+		//the exact distances are worked out outside the lock
+		List<Product> ranked = new ArrayList<>();
+		Map<Product,Double> dist = new IdentityHashMap<>();
+		for (Product p : candidates(query)) {
+			double d = KNN.computeDistance(query,p.getFeatures());
+			if (d <= maxDistance) {
+				dist.put(p,d);
+				ranked.add(p);
+			}
+		}
+		ranked.sort(Comparator.comparingDouble(dist::get));
+		return ranked.size() > k ? new ArrayList<>(ranked.subList(0,k)) : ranked;
+	}
+
+	@Override
+	public synchronized int size() {
+		return signatures.size();
+	}
+
+	@Override
+	public synchronized void clear() {
+		signatures.clear();
+		for (Map<Integer,List<Product>> table : buckets) {
+			table.clear();
+		}
+	}
+
+	//Getters and setters
+	public synchronized int getTables() {
+		return tables;
+	}
+	public synchronized int getBits() {
+		return bits;
+	}
+	public synchronized int getProbes() {
+		return probes;
+	}
+	public synchronized void setProbes(int probes) {
+		this.probes = probes;
+	}
+}
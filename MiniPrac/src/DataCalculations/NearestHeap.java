@@ -0,0 +1,101 @@
+package DataCalculations;
+
+import java.util.Arrays;
+
+/**
+ * The k nearest candidates seen so far,kept in a max-heap so the furthest of them is on top
+ */
+class NearestHeap {
+	private final double[] dist;
+	private final int[] ids;
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param k at least 1
+	 */
+	NearestHeap(int k) {
+		this.dist = new double[k];
+		this.ids = new int[k];
+	}
+
+	/**
+	 * Distance a candidate must be within to get in,maxDistance until the heap is full
+	 * @param maxDistance
+	 * @return double
+	 */
+	double limit(double maxDistance) {
+		return (size < dist.length) ? maxDistance : Math.min(maxDistance,dist[0]);
+	}
+
+	/**
+	 * Adds a candidate,pushing out the furthest one when the heap is full
+	 * Only call it for candidates within limit
+	 * @param d
+	 * @param id
+	 */
+	void offer(double d,int id) {
+		int i;
+		if (size < dist.length) {
+			//sift up
+			i = size++;
+			while (i>0 && dist[(i-1)/2]<d) {
+				dist[i] = dist[(i-1)/2];
+				ids[i] = ids[(i-1)/2];
+				i = (i-1)/2;
+			}
+		} else {
+			//replace the top and sift down
+			i = 0;
+			while (true) {
+				int c = 2*i+1;
+				if (c>=size) {
+					break;
+				}
+				if (c+1<size && dist[c+1]>dist[c]) {
+					c++;
+				}
+				if (dist[c]<=d) {
+					break;
+				}
+				dist[i] = dist[c];
+				ids[i] = ids[c];
+				i = c;
+			}
+		}
+		dist[i] = d;
+		ids[i] = id;
+	}
+
+	/**
+	 * Ids of the candidates kept,nearest first
+	 * @return int[]
+	 */
+	int[] sorted() {
+		Integer[] order = order();
+		int[] out = new int[size];
+		for (int i = 0; i<size; i++) {
+			out[i] = ids[order[i]];
+		}
+		return out;
+	}
+
+	/**
+	 * Distances of the candidates kept,nearest first
+	 * @return double[]
+	 */
+	double[] sortedDistances() {
+		double[] out = Arrays.copyOf(dist,size);
+		Arrays.sort(out);
+		return out;
+	}
+
+	private Integer[] order() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i<size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order,(a,b) -> Double.compare(dist[a],dist[b]));
+		return order;
+	}
+}
@@ -0,0 +1,122 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import Storage.Product;
+
+/**
+ * Finds products whose perceptual hashes are within a few bits of a given hash
+ * The 64 bit hash is split into 4 chunks of 16 bits with one table per chunk.
+ * Two hashes at most 3 bits apart must agree on at least one whole chunk,
+ * so only products sharing a chunk have to be checked instead of every product
+ */
+public class PerceptualHashIndex {
+	private static final int CHUNKS = 4;
+	//Largest distance the chunk tables can answer on their own
+	public static final int MAX_INDEXED_DISTANCE = CHUNKS-1;
+
+	private final List<Map<Integer,List<Product>>> tables;//one table per chunk
+	private final List<Product> all;//every hashed product,for distances above MAX_INDEXED_DISTANCE
+
+	public PerceptualHashIndex() {
+		tables = new ArrayList<>();
+		for (int c = 0; c<CHUNKS; c++) {
+			tables.add(new HashMap<>());
+		}
+		all = new ArrayList<>();
+	}
+
+	/**
+	 * Number of bits two hashes differ in
+	 * @param a
+	 * @param b
+	 * @return int between 0 and 64
+	 */
+	public static int distance(long a,long b) {
+		return Long.bitCount(a^b);
+	}
+
+	/**
+	 * Adds a product,products without a hash are ignored
+	 * @param p
+	 */
+	public void add(Product p) {
+		if (p.getFeatures() == null || !p.getFeatures().hasPerceptualHash()) {
+			return;
+		}
+		long hash = p.getFeatures().getPerceptualHash();
+		for (int c = 0; c<CHUNKS; c++) {
+			tables.get(c).computeIfAbsent(chunk(hash,c),x -> new ArrayList<>()).add(p);
+		}
+		all.add(p);
+	}
+
+	/**
+	 * Removes a product
+	 * @param p
+	 */
+	public void remove(Product p) {
+		if (!all.remove(p)) {
+			return;
+		}
+		long hash = p.getFeatures().getPerceptualHash();
+		for (int c = 0; c<CHUNKS; c++) {
+			List<Product> bucket = tables.get(c).get(chunk(hash,c));
+			if (bucket != null) {
+				bucket.remove(p);
+			}
+		}
+	}
+
+	/**
+	 * Finds all products whose hash is at most maxDistance bits away
+	 * @param hash
+	 * @param maxDistance
+	 * @return List<Product>
+	 */
+	public List<Product> findWithin(long hash,int maxDistance) {
+		List<Product> found = new ArrayList<>();
+		if (maxDistance > MAX_INDEXED_DISTANCE) {
+			//the chunk tables could miss some,so every hash is checked(still only a popcount each)
+			for (Product p : all) {
+				if (distance(hash,p.getFeatures().getPerceptualHash()) <= maxDistance) {
+					found.add(p);
+				}
+			}
+			return found;
+		}
+		for (int c = 0; c<CHUNKS; c++) {
+			List<Product> bucket = tables.get(c).get(chunk(hash,c));
+			if (bucket == null) {
+				continue;
+			}
+			for (Product p : bucket) {
+				//a product sharing several chunks shows up in several buckets
+				if (distance(hash,p.getFeatures().getPerceptualHash()) <= maxDistance && !found.contains(p)) {
+					found.add(p);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Removes everything from the index
+	 */
+	public void clear() {
+		for (Map<Integer,List<Product>> table : tables) {
+			table.clear();
+		}
+		all.clear();
+	}
+
+	/**
+	 * 16 bit chunk number c of a hash
+	 */
+	private static int chunk(long hash,int c) {
+		return (int)((hash>>>(16*c)) & 0xFFFF);
+	}
+}
@@ -0,0 +1,66 @@
+package DataCalculations;
+
+import java.util.List;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Nearest neighbour index over the features of stored products
+ * Distances are the ones KNN.computeDistance gives between two Features
+ */
+public interface ProductIndex {
+
+	/**
+	 * Adds a product,products without features are ignored
+	 * @param p
+	 */
+	void add(Product p);
+
+	/**
+	 * Removes a product
+	 * @param p
+	 * @return true if it was in the index
+	 */
+	boolean remove(Product p);
+
+	/**
+	 * The k products closest to query,nearest first
+	 * @param query
+	 * @param k
+	 * @return List<Product>
+	 */
+	default List<Product> nearest(Features query,int k) {
+		return nearest(query,k,Double.MAX_VALUE);
+	}
+
+	/**
+	 * The k products closest to query that are at most maxDistance away,nearest first
+	 * @param query
+	 * @param k
+	 * @param maxDistance
+	 * @return List<Product>
+	 */
+	List<Product> nearest(Features query,int k,double maxDistance);
+
+	/**
+	 * Every product at most radius away from query,nearest first
+	 * @param query
+	 * @param radius
+	 * @return List<Product>
+	 */
+	default List<Product> withinDistance(Features query,double radius) {
+		return nearest(query,Integer.MAX_VALUE,radius);
+	}
+
+	/**
+	 * Number of products in the index
+	 * @return int
+	 */
+	int size();
+
+	/**
+	 * Removes every product
+	 */
+	void clear();
+}
@@ -0,0 +1,117 @@
+package DataCalculations;
+
+/**
+ * Plain loop HistogramKernels,used when the vector module is not available
+ * Several running sums are kept so each addition does not wait on the one before
+ */
+class ScalarKernels extends HistogramKernels {
+
+	@Override
+	public double dot(double[] a,double[] b) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i+3<a.length; i += 4) {
+			s0 += a[i]*b[i];
+			s1 += a[i+1]*b[i+1];
+			s2 += a[i+2]*b[i+2];
+			s3 += a[i+3]*b[i+3];
+		}
+		for (; i<a.length; i++) {
+			s0 += a[i]*b[i];
+		}
+		return (s0+s1)+(s2+s3);
+	}
+
+	@Override
+	public double dot(float[] a,int offA,float[] b,int offB,int length) {
+		//float products summed in float over blocks of 32,which the JIT keeps in registers,
+		//and the blocks summed as doubles so the rounding error stays small
+		double sum = 0;
+		int k = 0;
+		for (; k+32<=length; k += 32) {
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int i = k; i<k+32; i += 4) {
+				s0 += a[offA+i]*b[offB+i];
+				s1 += a[offA+i+1]*b[offB+i+1];
+				s2 += a[offA+i+2]*b[offB+i+2];
+				s3 += a[offA+i+3]*b[offB+i+3];
+			}
+			sum += (s0+s1)+(s2+s3);
+		}
+		for (; k<length; k++) {
+			sum += a[offA+k]*b[offB+k];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a,int offA,double[] b) {
+		double sum = 0;
+		for (int i = 0; i<b.length; i++) {
+			sum += a[offA+i]*b[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double squaredDistance(double[] a,double[] b) {
+		double s0 = 0, s1 = 0;
+		int i = 0;
+		for (; i+1<a.length; i += 2) {
+			double d0 = a[i]-b[i];
+			double d1 = a[i+1]-b[i+1];
+			s0 += d0*d0;
+			s1 += d1*d1;
+		}
+		for (; i<a.length; i++) {
+			double d = a[i]-b[i];
+			s0 += d*d;
+		}
+		return s0+s1;
+	}
+
+	@Override
+	public double l1Distance(double[] a,double[] b) {
+		double sum = 0;
+		for (int i = 0; i<a.length; i++) {
+			sum += Math.abs(a[i]-b[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double intersection(double[] a,double[] b) {
+		double sum = 0;
+		for (int i = 0; i<a.length; i++) {
+			sum += Math.min(a[i],b[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double chiSquare(double[] a,double[] b) {
+		double sum = 0;
+		for (int i = 0; i<a.length; i++) {
+			double s = a[i]+b[i];
+			if (s > 0) {
+				double d = a[i]-b[i];
+				sum += d*d/s;
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double bhattacharyya(double[] a,double[] b) {
+		double sum = 0;
+		for (int i = 0; i<a.length; i++) {
+			sum += Math.sqrt(a[i]*b[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,218 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Finds products on a whole shelf image without the user outlining them
+ * Slides windows of a few sizes over the shelf,scores each window against the known products
+ * and keeps the best matches that do not overlap.
+ * Window features come from the shelf's IntegralHistogram so each window costs the same whatever its size,
+ * and the products' histograms are quantized to the same bins before being compared with them
+ */
+public class ShelfScanner {
+	//Window sides as a fraction of the shorter side of the shelf image
+	public static final double[] DEFAULT_SCALES = {0.1,0.15,0.2,0.3};
+	//Height/width ratios of the windows,products are often taller than they are wide
+	public static final double[] DEFAULT_ASPECTS = {1.0,1.5};
+	//How far a window moves each step as a fraction of its size
+	public static final double DEFAULT_STRIDE = 0.25;
+	//Windows further than this from every product are not reported
+	public static final double DEFAULT_MAX_DISTANCE = 5.0;
+
+	private final IntegralHistogram index;
+	private double[] scales = DEFAULT_SCALES;
+	private double[] aspects = DEFAULT_ASPECTS;
+	private double stride = DEFAULT_STRIDE;
+	private double maxDistance = DEFAULT_MAX_DISTANCE;
+
+	/**
+	 * One product found on the shelf
+	 */
+	public static class Detection {
+		private final int x, y, width, height;//position in shelf image pixels
+		private final Product match;//closest known product
+		private final double distance;//how far the window is from that product
+
+		public Detection(int x,int y,int width,int height,Product match,double distance) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.match = match;
+			this.distance = distance;
+		}
+
+		/**
+		 * Checks if two detections share any pixels
+		 * @param other
+		 * @return boolean
+		 */
+		public boolean overlaps(Detection other) {
+			return x < other.x+other.width && other.x < x+width
+					&& y < other.y+other.height && other.y < y+height;
+		}
+
+		@Override
+		public String toString() {
+			return match.getName() + " at (" + x + "," + y + ") " + width + "x" + height
+					+ " [distance =" + String.format("%.2f",distance) + "]";
+		}
+
+		//Getters
+		public int getX() {
+			return x;
+		}
+		public int getY() {
+			return y;
+		}
+		public int getWidth() {
+			return width;
+		}
+		public int getHeight() {
+			return height;
+		}
+		public Product getMatch() {
+			return match;
+		}
+		public double getDistance() {
+			return distance;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param index integral histogram of the shelf image being scanned
+	 */
+	public ShelfScanner(IntegralHistogram index) {
+		this.index = index;
+	}
+
+	/**
+	 * Scans the whole shelf and returns the non-overlapping windows that match a product,best match first
+	 * @param catalog products the windows are compared against
+	 * @return List<Detection>
+	 */
+	public List<Detection> scan(List<Product> catalog) {
+		List<Product> known = new ArrayList<>();
+		List<Features> quantized = new ArrayList<>();//known products' features in the index's bins
+		for (Product p : catalog) {
+			if (p.getFeatures() != null) {
+				known.add(p);
+				quantized.add(index.quantize(p.getFeatures()));
+			}
+		}
+		if (known.isEmpty()) {
+			return new ArrayList<>();
+		}
+		List<int[]> windows = candidateWindows();
+		//every window is scored on its own so they can all be scored at the same time
+		Detection[] scored = new Detection[windows.size()];
+		IntStream.range(0,windows.size()).parallel().forEach(i -> scored[i] = bestMatch(windows.get(i),known,quantized));
+
+		List<Detection> hits = new ArrayList<>();
+		for (Detection d : scored) {
+			if (d != null && d.getDistance() <= maxDistance) {
+				hits.add(d);
+			}
+		}
+		hits.sort(Comparator.comparingDouble(Detection::getDistance));
+		//greedily keeping the best windows that do not overlap one already kept
+		List<Detection> kept = new ArrayList<>();
+		for (Detection d : hits) {
+			boolean free = true;
+			for (Detection k : kept) {
+				if (d.overlaps(k)) {
+					free = false;
+					break;
+				}
+			}
+			if (free) {
+				kept.add(d);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * All windows for every scale and aspect as {x,y,width,height}
+	 * @return List<int[]>
+	 */
+	private List<int[]> candidateWindows() {
+		List<int[]> windows = new ArrayList<>();
+		int imgW = index.getWidth();
+		int imgH = index.getHeight();
+		int side = Math.min(imgW,imgH);
+		for (double scale : scales) {
+			for (double aspect : aspects) {
+				int w = Math.max(1,(int)(side*scale));
+				int h = Math.max(1,(int)(side*scale*aspect));
+				if (w>imgW || h>imgH) {
+					continue;
+				}
+				int stepX = Math.max(1,(int)(w*stride));
+				int stepY = Math.max(1,(int)(h*stride));
+				for (int y = 0; y+h<=imgH; y += stepY) {
+					for (int x = 0; x+w<=imgW; x += stepX) {
+						windows.add(new int[] {x,y,w,h});
+					}
+				}
+			}
+		}
+		return windows;
+	}
+
+	/**
+	 * Closest product to one window
+	 * @param window {x,y,width,height}
+	 * @param known
+	 * @param quantized features of each known product in the index's bins
+	 * @return Detection
+	 */
+	private Detection bestMatch(int[] window,List<Product> known,List<Features> quantized) {
+		Features f = index.regionFeatures(window[0],window[1],window[2],window[3]);
+		Product best = null;
+		double bestDist = Double.MAX_VALUE;
+		DistanceMetric metric = KNN.getMetric();
+		for (int i = 0; i<known.size(); i++) {
+			//windows and quantized copies are never in the distance cache,and it must not be read while products are added
+			double dist = KNN.rawDistance(f,quantized.get(i),metric);
+			if (dist<bestDist) {
+				bestDist = dist;
+				best = known.get(i);
+			}
+		}
+		return new Detection(window[0],window[1],window[2],window[3],best,bestDist);
+	}
+
+	//Getters and setters
+	public double[] getScales() {
+		return scales;
+	}
+	public void setScales(double[] scales) {
+		this.scales = scales;
+	}
+	public double[] getAspects() {
+		return aspects;
+	}
+	public void setAspects(double[] aspects) {
+		this.aspects = aspects;
+	}
+	public double getStride() {
+		return stride;
+	}
+	public void setStride(double stride) {
+		this.stride = stride;
+	}
+	public double getMaxDistance() {
+		return maxDistance;
+	}
+	public void setMaxDistance(double maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+}
@@ -0,0 +1,272 @@
+package DataCalculations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Vantage point tree over product features
+ * Every node splits the products below it into those within its radius of the node's product and those outside it,
+ * so the triangle inequality lets whole subtrees be skipped when searching.
+ * When KNN's metric breaks the triangle inequality every live product is compared instead.
+ * New products are put straight into the tree,removed ones are only marked,
+ * and the tree is rebuilt balanced once it has doubled in size or half of it is marked
+ */
+public class VPTree implements ProductIndex {
+	private static final int MIN_REBUILD = 64;//small trees are not worth rebuilding
+
+	/**
+	 * One product in the tree
+	 */
+	private static class Node {
+		private final Product product;
+		private final Features feats;
+		//products in inside are at most radius away,products in outside at least radius,NaN until it has children
+		private double radius = Double.NaN;
+		private Node inside, outside;
+		private boolean deleted;
+
+		private Node(Product product) {
+			this.product = product;
+			this.feats = product.getFeatures();
+		}
+	}
+
+	/**
+	 * A product found by a search
+	 */
+	private static class Hit {
+		private final Product product;
+		private final double distance;
+
+		private Hit(Product product,double distance) {
+			this.product = product;
+			this.distance = distance;
+		}
+	}
+
+	private final Random random = new Random(42);//picks vantage points,seeded so builds repeat
+	private final Map<Product,Node> nodes = new IdentityHashMap<>();//live products only
+	private Node root;
+	private int deleted;//marked nodes still in the tree
+	private int builtSize;//live products when the tree was last rebuilt
+
+	@Override
+	public synchronized void add(Product p) {
+		if (p.getFeatures() == null || nodes.containsKey(p)) {
+			return;
+		}
+		Node n = new Node(p);
+		nodes.put(p,n);
+		if (root == null) {
+			root = n;
+		} else {
+			insert(n);
+		}
+		if (nodes.size() > Math.max(MIN_REBUILD,2*builtSize)) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Walks down to where the node belongs and hangs it there
+	 * @param n
+	 */
+	private void insert(Node n) {
+		Node at = root;
+		while (true) {
+			double d = KNN.computeDistance(at.feats,n.feats);
+			if (Double.isNaN(at.radius)) {
+				at.radius = d;
+				at.outside = n;
+				return;
+			}
+			if (d < at.radius) {
+				if (at.inside == null) {
+					at.inside = n;
+					return;
+				}
+				at = at.inside;
+			} else {
+				if (at.outside == null) {
+					at.outside = n;
+					return;
+				}
+				at = at.outside;
+			}
+		}
+	}
+
+	@Override
+	public synchronized boolean remove(Product p) {
+		Node n = nodes.remove(p);
+		if (n == null) {
+			return false;
+		}
+		n.deleted = true;//still needed to route searches until the next rebuild
+		deleted++;
+		if (deleted > Math.max(MIN_REBUILD,nodes.size())) {
+			rebuild();
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a balanced tree from the live products
+	 */
+	private void rebuild() {
+		Node[] live = new Node[nodes.size()];
+		int i = 0;
+		for (Product p : nodes.keySet()) {
+			Node n = new Node(p);
+			nodes.put(p,n);
+			live[i++] = n;
+		}
+		root = build(live,0,live.length);
+		deleted = 0;
+		builtSize = live.length;
+	}
+
+	/**
+	 * Builds the subtree of nodes[from,to),splitting around the median distance to a random vantage point
+	 * @param nodes
+	 * @param from
+	 * @param to
+	 * @return root of the subtree
+	 */
+	private Node build(Node[] nodes,int from,int to) {
+		if (from >= to) {
+			return null;
+		}
+		int pick = from+random.nextInt(to-from);
+		Node vp = nodes[pick];
+		nodes[pick] = nodes[from];
+		nodes[from] = vp;
+		if (to-from == 1) {
+			return vp;
+		}
+		//sorting the rest by distance to the vantage point
+		int count = to-from-1;
+		double[] dist = new double[count];
+		Integer[] order = new Integer[count];
+		for (int i = 0; i<count; i++) {
+			dist[i] = KNN.computeDistance(vp.feats,nodes[from+1+i].feats);
+			order[i] = i;
+		}
+		Arrays.sort(order,Comparator.comparingDouble(i -> dist[i]));
+		Node[] sorted = new Node[count];
+		for (int i = 0; i<count; i++) {
+			sorted[i] = nodes[from+1+order[i]];
+		}
+		System.arraycopy(sorted,0,nodes,from+1,count);
+		int mid = count/2;
+		vp.radius = dist[order[mid]];
+		vp.inside = build(nodes,from+1,from+1+mid);
+		vp.outside = build(nodes,from+1+mid,to);
+		return vp;
+	}
+
+	@Override
+	public synchronized List<Product> nearest(Features query,int k,double maxDistance) {
+		List<Product> found = new ArrayList<>();
+		if (root == null || k < 1) {
+			return found;
+		}
+		//furthest of the best found so far on top
+		PriorityQueue<Hit> best = new PriorityQueue<>(Comparator.comparingDouble((Hit h) -> h.distance).reversed());
+		if (KNN.getMetric().isMetric()) {
+			search(root,query,k,maxDistance,best);
+		} else {
+			scan(query,k,maxDistance,best);
+		}
+		while (!best.isEmpty()) {
+			found.add(best.poll().product);
+		}
+		Collections.reverse(found);
+		return found;
+	}
+
+	/**
+	 * Searches a subtree,skipping any side that cannot hold anything closer than the current k-th best
+	 * @param node
+	 * @param query
+	 * @param k
+	 * @param maxDistance
+	 * @param best
+	 */
+	private void search(Node node,Features query,int k,double maxDistance,PriorityQueue<Hit> best) {
+		if (node == null) {
+			return;
+		}
+		double d = KNN.computeDistance(query,node.feats);
+		if (!node.deleted && d <= limit(k,maxDistance,best)) {
+			best.add(new Hit(node.product,d));
+			if (best.size() > k) {
+				best.poll();
+			}
+		}
+		if (Double.isNaN(node.radius)) {
+			return;
+		}
+		//the side the query falls in first,it is the likelier one to shrink the limit
+		if (d < node.radius) {
+			search(node.inside,query,k,maxDistance,best);
+			if (d+limit(k,maxDistance,best) >= node.radius) {
+				search(node.outside,query,k,maxDistance,best);
+			}
+		} else {
+			search(node.outside,query,k,maxDistance,best);
+			if (d-limit(k,maxDistance,best) <= node.radius) {
+				search(node.inside,query,k,maxDistance,best);
+			}
+		}
+	}
+
+	/**
+	 * Compares the query with every live product,nothing can be skipped without the triangle inequality
+	 * @param query
+	 * @param k
+	 * @param maxDistance
+	 * @param best
+	 */
+	private void scan(Features query,int k,double maxDistance,PriorityQueue<Hit> best) {
+		for (Node node : nodes.values()) {
+			double d = KNN.computeDistance(query,node.feats);
+			if (d <= limit(k,maxDistance,best)) {
+				best.add(new Hit(node.product,d));
+				if (best.size() > k) {
+					best.poll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Distance a product must be within to make it into the results
+	 */
+	private static double limit(int k,double maxDistance,PriorityQueue<Hit> best) {
+		return best.size() < k ? maxDistance : Math.min(maxDistance,best.peek().distance);
+	}
+
+	@Override
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	@Override
+	public synchronized void clear() {
+		nodes.clear();
+		root = null;
+		deleted = 0;
+		builtSize = 0;
+	}
+}
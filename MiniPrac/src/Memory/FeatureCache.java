@@ -0,0 +1,272 @@
+package Memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import DataCalculations.FeatureExtractor;
+import Storage.Features;
+
+/**
+ * On-disk cache of extracted Features so images that were already processed are never decoded again
+ * Entries are keyed by a hash of the image file's bytes,the extractor version and the region that was extracted.
+ * Holds at most maxEntries features and drops the least recently used one when full
+ */
+public class FeatureCache {
+	//Bump whenever extraction changes so old entries stop matching
+	public static final int EXTRACTOR_VERSION = 1;
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final String DEFAULT_CACHE_FILE = "data/featureCache";
+	private static final int MAGIC = 0x46434348;//"FCCH" at the start of every cache file
+
+	/**
+	 * Something that extracts features when they are not in the cache
+	 */
+	public interface Extraction {
+		Features extract() throws IOException;
+	}
+
+	private final File file;
+	private final Map<String,Features> entries;
+	private boolean dirty;//true when there are entries not yet written to file
+
+	/**
+	 * Opens the cache stored in file,an unreadable or outdated file just gives an empty cache
+	 * @param file
+	 * @param maxEntries
+	 */
+	public FeatureCache(File file,int maxEntries) {
+		this.file = file;
+		//access order makes the first entry the least recently used one
+		this.entries = new LinkedHashMap<String,Features>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Features> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		if (file.exists()) {
+			try {
+				load();
+			} catch (IOException e) {
+				System.err.println("Could not read feature cache: " + file + " starting with an empty one.");
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * Hex SHA-256 of a file's bytes,the file is only read not decoded
+	 * @param imageFile
+	 * @return String
+	 * @throws IOException
+	 */
+	public static String contentHash(File imageFile) throws IOException {
+		try (InputStream in = new FileInputStream(imageFile)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buf = new byte[1<<16];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				digest.update(buf,0,n);
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(String.format("%02x",b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);//every JVM has SHA-256
+		}
+	}
+
+	/**
+	 * Key for the features of a whole image
+	 * @param contentHash
+	 * @return String
+	 */
+	public static String key(String contentHash) {
+		return contentHash + "-v" + EXTRACTOR_VERSION;
+	}
+
+	/**
+	 * Key for the features of a region of an image
+	 * @param contentHash
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return String
+	 */
+	public static String key(String contentHash,int x,int y,int width,int height) {
+		return key(contentHash) + "-" + x + "_" + y + "_" + width + "_" + height;
+	}
+
+	/**
+	 * Cached features for a key
+	 * A copy is handed out so attaching it to a store never changes what is cached
+	 * @param key
+	 * @return Features or null if they are not cached
+	 */
+	public synchronized Features get(String key) {
+		Features feats = entries.get(key);
+		return (feats == null) ? null : copy(feats);
+	}
+
+	/**
+	 * Stores a copy of features under a key
+	 * @param key
+	 * @param feats
+	 */
+	public synchronized void put(String key,Features feats) {
+		entries.put(key,copy(feats));
+		dirty = true;
+	}
+
+	/**
+	 * Features with a histogram of their own,for features in a store the histogram is read back out of it
+	 * @param feats
+	 * @return Features
+	 */
+	private static Features copy(Features feats) {
+		double[] hist = feats.getRgbHistogram();
+		if (feats.getStore() == null) {
+			hist = hist.clone();//a view already hands out a copy
+		}
+		return feats.hasPerceptualHash()
+				? new Features(feats.getAvgGray(),hist,feats.getWidth(),feats.getHeight(),feats.getPerceptualHash())
+				: new Features(feats.getAvgGray(),hist,feats.getWidth(),feats.getHeight());
+	}
+
+	/**
+	 * Cached features for a key,extracting and storing them first if they are missing
+	 * @param key
+	 * @param extraction only run on a miss
+	 * @return Features
+	 * @throws IOException
+	 */
+	public Features getOrCompute(String key,Extraction extraction) throws IOException {
+		Features feats = get(key);
+		if (feats == null) {
+			feats = extraction.extract();
+			put(key,feats);
+		}
+		return feats;
+	}
+
+	/**
+	 * Cached features for a region key,extracting the region from the image file again on a miss
+	 * The file is only decoded if its content still hashes to the one in the key
+	 * @param key made by key(contentHash,x,y,width,height)
+	 * @param imageFile file the region was cropped from
+	 * @return Features or null if they are not cached and cannot be extracted again
+	 * @throws IOException if the file cannot be read or decoded
+	 */
+	public Features getOrExtract(String key,File imageFile) throws IOException {
+		Features feats = get(key);
+		if (feats != null || !imageFile.isFile()) {
+			return feats;
+		}
+		int[] r = region(key);
+		if (r == null || !key.equals(key(contentHash(imageFile),r[0],r[1],r[2],r[3]))) {
+			return null;//not a region key or the file changed since
+		}
+		return getOrCompute(key,() -> FeatureExtractor.extract(FeatureExtractor.decode(imageFile),r[0],r[1],r[2],r[3]));
+	}
+
+	/**
+	 * Region a key was made for
+	 * @param key
+	 * @return {x,y,width,height} or null if the key is for a whole image
+	 */
+	public static int[] region(String key) {
+		String[] parts = key.substring(key.lastIndexOf('-')+1).split("_");
+		if (parts.length != 4) {
+			return null;
+		}
+		try {
+			int[] r = new int[4];
+			for (int i = 0; i<4; i++) {
+				r[i] = Integer.parseInt(parts[i]);
+			}
+			return r;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Number of cached features
+	 * @return int
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Writes the cache to its file if anything changed,least recently used first so the order survives a reload
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(EXTRACTOR_VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String,Features> e : entries.entrySet()) {
+				Features f = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeDouble(f.getAvgGray());
+				out.writeInt(f.getWidth());
+				out.writeInt(f.getHeight());
+				out.writeBoolean(f.hasPerceptualHash());
+				out.writeLong(f.getPerceptualHash());
+				for (double d : f.getRgbHistogram()) {
+					out.writeDouble(d);
+				}
+			}
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Reads the cache file,files from another extractor version are ignored
+	 * @throws IOException
+	 */
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != EXTRACTOR_VERSION) {
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i<count; i++) {
+				String key = in.readUTF();
+				double avgGray = in.readDouble();
+				int width = in.readInt();
+				int height = in.readInt();
+				boolean hashed = in.readBoolean();
+				long hash = in.readLong();
+				double[] hist = new double[256];
+				for (int b = 0; b<256; b++) {
+					hist[b] = in.readDouble();
+				}
+				entries.put(key,hashed ? new Features(avgGray,hist,width,height,hash) : new Features(avgGray,hist,width,height));
+			}
+		}
+	}
+}
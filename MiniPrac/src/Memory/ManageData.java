@@ -12,27 +12,195 @@ import java.util.Map;
 import javafx.scene.image.Image;
 import javax.imageio.ImageIO;
 
+import DataCalculations.DistanceCache;
+import DataCalculations.KNN;
+import DataCalculations.KSelector;
+import DataCalculations.PerceptualHashIndex;
+import DataCalculations.ProductIndex;
+import DataCalculations.VPTree;
+import Visualisation.ImageProcessor;
 import Storage.*;
 /**
  * Stores and retrieves data
  * Load/save products and shelf data
  */
 public class ManageData {
+	//Products of the same name whose images' hashes are at most this many bits apart count as the same product
+	public static final int DUPLICATE_DISTANCE = 3;
 	private List<Product> products;
     private TreeGraph PGraph;
+    private PerceptualHashIndex hashIndex;//used to spot the same image being added twice
+    private ProductIndex index;//nearest stored products by features
+    private KSelector kSelector;//picks k for finding similar products,kept across clearAll
+    private DistanceCache distanceCache;//distances between stored products,used by every KNN.computeDistance
+    private FeatureCache featureCache;//features of images that were already processed
+    private FeatureStore featureStore;//packed histograms of every stored product
 
     public ManageData() {
+        this(new FeatureCache(new File(FeatureCache.DEFAULT_CACHE_FILE),FeatureCache.DEFAULT_MAX_ENTRIES),openDefaultStore());
+    }
+
+    public ManageData(FeatureCache featureCache,FeatureStore featureStore) {
+        this(featureCache,featureStore,new VPTree());
+    }
+
+    /**
+     * Constructor
+     * @param featureCache
+     * @param featureStore
+     * @param index nearest neighbour index kept in sync with the stored products,e.g. an LSHIndex or HNSWIndex for big catalogs
+     */
+    public ManageData(FeatureCache featureCache,FeatureStore featureStore,ProductIndex index) {
         this.products = new ArrayList<>();
         this.PGraph = new TreeGraph(new HashMap<>());
+        this.hashIndex = new PerceptualHashIndex();
+        this.index = index;
+        this.PGraph.setIndex(index);
+        this.kSelector = new KSelector();
+        this.PGraph.setKSelector(kSelector);
+        this.distanceCache = new DistanceCache();
+        KNN.setDistanceCache(distanceCache);
+        this.featureCache = featureCache;
+        this.featureStore = featureStore;
+    }
+
+    /**
+     * Opens the memory-mapped store at its default path,falling back to one on the heap if it cannot be mapped
+     * @return FeatureStore
+     */
+    private static FeatureStore openDefaultStore() {
+        try {
+            return new MappedFeatureStore(new File(MappedFeatureStore.DEFAULT_STORE_FILE));
+        } catch (IOException e) {
+            System.err.println("Could not map feature store: " + e.getMessage() + " keeping features on the heap.");
+            return new ArrayFeatureStore();
+        }
+    }
+
+    /**
+     * Copies the histograms of the stored products out of the store,
+     * so products still held elsewhere keep their features when the store reuses their ordinals
+     */
+    private void detachAll() {
+        for (Product p : products) {
+            if (p.getFeatures() != null) {
+                p.getFeatures().detach();
+            }
+        }
+    }
+
+    /**
+     * Releases every ordinal of the store that none of the given products use
+     * @param keep
+     */
+    private void releaseUnused(List<Product> keep) {
+        boolean[] used = new boolean[featureStore.size()];
+        for (Product p : keep) {
+            Features f = p.getFeatures();
+            if (f != null && f.getStore() == featureStore) {
+                used[f.getOrdinal()] = true;
+            }
+        }
+        for (int ord = 0; ord<used.length; ord++) {
+            if (!used[ord]) {
+                featureStore.release(ord);
+            }
+        }
     }
 
     /**
      * Delegates adding a product to TreeGraph and list of products
+     * A product that is a near-duplicate of one already stored is rejected
      * @param product
+     * @return true if it was added,false if it was a duplicate
      */
-    public void addProduct(Product product) {
+    public boolean addProduct(Product product) {
+        if (findDuplicate(product) != null) {
+            return false;
+        }
+        if (product.getFeatures() != null) {
+            product.getFeatures().attach(featureStore);
+            distanceCache.add(product.getFeatures());
+        }
         products.add(product);
         PGraph.addProduct(product);
+        hashIndex.add(product);
+        index.add(product);
+        return true;
+    }
+
+    /**
+     * Removes a product from the list of products,the TreeGraph and the indexes
+     * @param product
+     * @return true if it was stored
+     */
+    public boolean removeProduct(Product product) {
+        if (!products.remove(product)) {
+            return false;
+        }
+        PGraph.removeProduct(product);
+        hashIndex.remove(product);
+        index.remove(product);
+        Features f = product.getFeatures();
+        if (!sharesFeatures(product)) {
+            distanceCache.remove(f);
+            if (f != null && f.getStore() != null && !sharesOrdinal(f)) {
+                //the ordinal goes back to the store once nothing views it
+                FeatureStore store = f.getStore();
+                int ord = f.getOrdinal();
+                f.detach();
+                store.release(ord);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a stored product with the same name and shelf whose image is nearly identical
+     * Only the perceptual hashes are compared so this stays cheap however many products there are
+     * @param product
+     * @return the duplicate or null if there is none
+     */
+    public Product findDuplicate(Product product) {
+        Features f = product.getFeatures();
+        if (f == null || !f.hasPerceptualHash()) {
+            return null;
+        }
+        for (Product p : hashIndex.findWithin(f.getPerceptualHash(),DUPLICATE_DISTANCE)) {
+            if (p.getNameSymbol() == product.getNameSymbol() && p.getShelfSymbol() == product.getShelfSymbol()) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if another stored product uses the same features object
+     * @param product
+     * @return boolean
+     */
+    private boolean sharesFeatures(Product product) {
+        for (Product p : products) {
+            if (p.getFeatures() == product.getFeatures()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if another stored product's features view the same ordinal of the same store
+     * @param f
+     * @return boolean
+     */
+    private boolean sharesOrdinal(Features f) {
+        for (Product p : products) {
+            Features other = p.getFeatures();
+            if (other != null && other.getStore() == f.getStore() && other.getOrdinal() == f.getOrdinal()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -51,13 +219,36 @@ public class ManageData {
     public TreeGraph getGraph() {
         return PGraph;
     }
+    public FeatureCache getFeatureCache() {
+        return featureCache;
+    }
+    public FeatureStore getFeatureStore() {
+        return featureStore;
+    }
+    public ProductIndex getIndex() {
+        return index;
+    }
+    public KSelector getKSelector() {
+        return kSelector;
+    }
+    public DistanceCache getDistanceCache() {
+        return distanceCache;
+    }
 
     /**
      * Clears all products in products list and TreeGraph to start over
      */
     public void clearAll() {
+        detachAll();
         products.clear();
         PGraph = new TreeGraph(new HashMap<>());
+        PGraph.setIndex(index);
+        PGraph.setKSelector(kSelector);
+        kSelector.invalidate();
+        hashIndex.clear();
+        index.clear();
+        distanceCache.clear();
+        featureStore.clear();//emptied in place,so it stays the kind of store it was built with
     }
 
     /**
@@ -105,6 +296,8 @@ public class ManageData {
     
     /**
      * Saves products in List to a csv file for later use if needed
+     * The feature cache is saved along with it so the full features can be found again on load,
+     * and with a mapped store each product's ordinal is written so its features are mapped back without any work
      * @param filePath
      * @throws IOException
      */
@@ -123,10 +316,17 @@ public class ManageData {
                     String.valueOf(f.getWidth())+","+
                     String.valueOf(f.getHeight())+","+
                     p.getImagePath()+ "," + 
-                    p.getFresh().name()
+                    p.getFresh().name()+ "," +
+                    (f.hasPerceptualHash() ? Long.toHexString(f.getPerceptualHash()) : "")+ "," +
+                    (p.getFeatureKey() != null ? p.getFeatureKey() : "")+ "," +
+                    (f.getStore() instanceof MappedFeatureStore ? String.valueOf(f.getOrdinal()) : "")
                 );
             }
         }
+        featureCache.save();
+        if (featureStore instanceof MappedFeatureStore) {
+            ((MappedFeatureStore) featureStore).flush();
+        }
     }
     
     /**
@@ -135,7 +335,13 @@ public class ManageData {
      * @throws IOException
      */
     public void loadFromCSV(String filePath) throws IOException {
+        detachAll();//ordinals the file does not use are reused once it is read
         products.clear();//Clear the list of products in order to create space
+        hashIndex.clear();
+        index.clear();
+        distanceCache.clear();
+        kSelector.invalidate();
+        List<Product> loaded = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
             String line;
             //line by line read each product attribute in the csv file
@@ -150,24 +356,73 @@ public class ManageData {
                 int width = Integer.parseInt(parts[6]);
                 int height = Integer.parseInt(parts[7]);
                 String imagePath = parts[8];
-                Features feats = new Features(avgGray,new double[256],width,height);
                 FreshnessLvl freshness = FreshnessLvl.valueOf(parts[9]);
                 Image img=null;//image usually null since we cannot save it to a csv file
                 //but we can use the image path to find it again
                 if(imagePath != null && !imagePath.trim().isEmpty()) {
                 	try {
-                		img = new Image(new File(imagePath).toURI().toString());//if we find image again the reread it and create an image
+                		img = ImageProcessor.loadThumbnail(imagePath);//if we find image again the reread it,only a thumbnail is ever shown
                 	}catch(Exception e) {
                 		System.err.println("Could not load image: " + imagePath + " but proceeding regardless.");
                 		continue;
                 	}
                 }
+                String featureKey = (parts.length > 11 && !parts[11].isEmpty()) ? parts[11] : null;
+                Features feats = null;
+                if (parts.length > 12 && !parts[12].isEmpty()) {//saved with a mapped store,the features are still in it
+                	feats = storedFeatures(Integer.parseInt(parts[12]),avgGray,width,height);
+                }
+                if (feats == null && featureKey != null) {
+                	//full features without decoding anything if they are cached,otherwise the crop is extracted again
+                	try {
+                		feats = featureCache.getOrExtract(featureKey,new File(imagePath));
+                	} catch (IOException e) {
+                		System.err.println("Could not extract features again: " + imagePath + " but proceeding regardless.");
+                	}
+                }
+                if (feats == null) {//not cached and the image changed,falling back to what the csv file has
+                	if (parts.length > 10 && !parts[10].isEmpty()) {//files saved with a perceptual hash
+                		feats = new Features(avgGray,new double[256],width,height,Long.parseUnsignedLong(parts[10],16));
+                	} else if (img != null && !img.isError()) {//older files,the hash barely changes with size so the thumbnail is enough
+                		feats = new Features(avgGray,new double[256],width,height,ImageProcessor.extractFeatures(img).getPerceptualHash());
+                	} else {
+                		feats = new Features(avgGray,new double[256],width,height);
+                	}
+                }
                 Shelf shelf = new Shelf(shelfID, img);
                 Product product = new Product(name,feats,shelf,img,new Date(year,month,day),freshness);//create product 
                 product.setImagePath(imagePath);
-                addProduct(product);//add the product to the new list
+                product.setFeatureKey(featureKey);
+                loaded.add(product);
             }
         }
+        //products whose features are not in the store yet are only added once every ordinal the file uses is known,
+        //so they go into the ordinals nothing uses instead of growing the store each time a file is loaded
+        releaseUnused(loaded);
+        boolean rejected = false;
+        for (Product product : loaded) {
+            rejected |= !addProduct(product);//add the product to the new list
+        }
+        if (rejected) {
+            releaseUnused(products);//rows rejected as duplicates give back the ordinals they were read from
+        }
+    }
+
+    /**
+     * View of an ordinal in the mapped store,only if it still holds the features the csv file describes
+     * @param ord
+     * @param avgGray
+     * @param width
+     * @param height
+     * @return Features or null if the store does not have them
+     */
+    private Features storedFeatures(int ord,double avgGray,int width,int height) {
+        if (!(featureStore instanceof MappedFeatureStore) || ord < 0 || ord >= featureStore.size() || featureStore.isReleased(ord)) {
+            return null;
+        }
+        if (featureStore.getAvgGray(ord) != avgGray || featureStore.getWidth(ord) != width || featureStore.getHeight(ord) != height) {
+            return null;//the store files were replaced since the csv was saved
+        }
+        return new Features(featureStore,ord);
     }
-    
 }
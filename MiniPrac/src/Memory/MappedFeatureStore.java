@@ -0,0 +1,248 @@
+package Memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import DataCalculations.HistogramKernels;
+import Storage.FeatureStore;
+
+/**
+ * FeatureStore that lives in memory-mapped files instead of the heap
+ * Histograms go in one file and the gray,width,height and hash of each ordinal in another.
+ * Both are mapped in chunks of CHUNK products so the files can keep growing,
+ * and reopening the files after a restart gives back every ordinal without parsing or extracting anything.
+ * Released ordinals are flagged in the meta file so they are still reused after a restart,
+ * and the files are locked so only one store at a time can have them open
+ */
+public final class MappedFeatureStore extends FeatureStore {
+	public static final String DEFAULT_STORE_FILE = "data/featureStore";
+	private static final int CHUNK = 4096;//products per mapped chunk
+	private static final int HIST_BYTES = BINS*Float.BYTES;//bytes of one histogram
+	private static final int META_BYTES = 40;//gray(8) width(4) height(4) hash(8) hashed(4) released(4) norm(8)
+	private static final int HEADER_BYTES = 16;//magic,version,size at the start of the meta file
+	private static final int MAGIC = 0x46535452;//"FSTR"
+	private static final int VERSION = 2;
+
+	private final RandomAccessFile histFile, metaFile;
+	private final FileLock lock;//held on the histogram file while the store is open
+	private final MappedByteBuffer header;
+	//chunks are only ever appended,copy on write lets readers use them without locking
+	private final List<FloatBuffer> histChunks = new CopyOnWriteArrayList<>();
+	private final List<ByteBuffer> metaChunks = new CopyOnWriteArrayList<>();
+	private final List<MappedByteBuffer> mappings = new ArrayList<>();//every mapping,kept so they can be forced to disk
+	private volatile int size;
+
+	/**
+	 * Opens the store kept in base.hist and base.meta,creating them if they do not exist
+	 * @param base path of the files without their extension
+	 * Files written by another version of the store are started over since their layout is different
+	 * @throws IOException if the files cannot be mapped or are not a feature store
+	 */
+	public MappedFeatureStore(File base) throws IOException {
+		File parent = base.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		histFile = new RandomAccessFile(base.getPath()+".hist","rw");
+		metaFile = new RandomAccessFile(base.getPath()+".meta","rw");
+		FileLock held;
+		try {
+			held = histFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			held = null;//this JVM already has it open
+		}
+		lock = held;
+		if (lock == null) {
+			closeFiles();
+			throw new IOException("Feature store is already open: " + base);
+		}
+		if (metaFile.length() >= HEADER_BYTES) {
+			metaFile.seek(0);
+			int magic = metaFile.readInt();
+			int version = metaFile.readInt();
+			if (magic != MAGIC) {
+				closeFiles();
+				throw new IOException("Not a feature store: " + base);
+			}
+			if (version != VERSION) {
+				System.err.println("Feature store " + base + " is from another version,starting it over.");
+				histFile.setLength(0);
+				metaFile.setLength(0);
+			}
+		}
+		boolean fresh = metaFile.length() < HEADER_BYTES;
+		header = metaFile.getChannel().map(FileChannel.MapMode.READ_WRITE,0,HEADER_BYTES);
+		if (fresh) {
+			header.putInt(0,MAGIC);
+			header.putInt(4,VERSION);
+			header.putInt(8,0);
+		}
+		int stored = header.getInt(8);
+		while (histChunks.size()*CHUNK < stored) {
+			mapChunk();
+		}
+		for (int ord = 0; ord<stored; ord++) {
+			if (metaChunks.get(ord/CHUNK).getInt((ord%CHUNK)*META_BYTES+28) != 0) {
+				restoreReleased(ord);
+			}
+		}
+		size = stored;
+	}
+
+	/**
+	 * Maps the next chunk of both files,growing the files when needed
+	 * @throws IOException
+	 */
+	private void mapChunk() throws IOException {
+		long index = histChunks.size();
+		MappedByteBuffer hist = histFile.getChannel()
+				.map(FileChannel.MapMode.READ_WRITE,index*CHUNK*HIST_BYTES,(long)CHUNK*HIST_BYTES);
+		MappedByteBuffer meta = metaFile.getChannel()
+				.map(FileChannel.MapMode.READ_WRITE,HEADER_BYTES+index*CHUNK*META_BYTES,(long)CHUNK*META_BYTES);
+		mappings.add(hist);
+		mappings.add(meta);
+		histChunks.add(hist.order(ByteOrder.nativeOrder()).asFloatBuffer());
+		metaChunks.add(meta.order(ByteOrder.nativeOrder()));
+	}
+
+	@Override
+	public synchronized int add(double avgGray,double[] rgbHist,int width,int height,boolean hasHash,long pHash) {
+		int ord = takeReleased();
+		boolean grows = (ord == -1);
+		if (grows) {
+			ord = size;
+			try {
+				if (ord/CHUNK == histChunks.size()) {
+					mapChunk();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not grow feature store",e);
+			}
+		}
+		FloatBuffer hist = histChunks.get(ord/CHUNK);
+		int base = (ord%CHUNK)*BINS;
+		double norm = 0;
+		for (int i = 0; i<BINS; i++) {
+			float v = (float)rgbHist[i];
+			hist.put(base+i,v);
+			norm += (double)v*v;//of the stored floats so it matches what dot reads
+		}
+		ByteBuffer meta = metaChunks.get(ord/CHUNK);
+		int m = (ord%CHUNK)*META_BYTES;
+		meta.putDouble(m,avgGray);
+		meta.putInt(m+8,width);
+		meta.putInt(m+12,height);
+		meta.putLong(m+16,pHash);
+		meta.putInt(m+24,hasHash ? 1 : 0);
+		meta.putDouble(m+32,norm);
+		//written last so a crash never exposes a half written ordinal
+		meta.putInt(m+28,0);
+		if (grows) {
+			header.putInt(8,ord+1);
+			size = ord+1;
+		}
+		return ord;
+	}
+
+	@Override
+	protected void markReleased(int ord) {
+		metaChunks.get(ord/CHUNK).putInt((ord%CHUNK)*META_BYTES+28,1);
+	}
+
+	/**
+	 * Empties the store,the files keep their length and later adds write over them from the start
+	 */
+	@Override
+	public synchronized void clear() {
+		header.putInt(8,0);
+		size = 0;
+		clearReleased();
+	}
+
+	@Override
+	public void copyHistogram(int ord,double[] dst) {
+		FloatBuffer hist = histChunks.get(ord/CHUNK);
+		int base = (ord%CHUNK)*BINS;
+		for (int i = 0; i<BINS; i++) {
+			dst[i] = hist.get(base+i);
+		}
+	}
+
+	//both dot products read the floats straight out of the mapping,no row is copied first
+	@Override
+	public double dot(int a,int b) {
+		return HistogramKernels.INSTANCE.dot(histChunks.get(a/CHUNK),(a%CHUNK)*BINS,histChunks.get(b/CHUNK),(b%CHUNK)*BINS,BINS);
+	}
+
+	@Override
+	public double dot(int ord,double[] other) {
+		return HistogramKernels.INSTANCE.dot(histChunks.get(ord/CHUNK),(ord%CHUNK)*BINS,other);
+	}
+
+	/**
+	 * Makes sure everything written so far is on disk
+	 */
+	public synchronized void flush() {
+		for (MappedByteBuffer m : mappings) {
+			m.force();
+		}
+		header.force();
+	}
+
+	/**
+	 * Closes the files and lets another store open them,the mappings stay readable until they are garbage collected
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (lock.isValid()) {
+			lock.release();
+		}
+		closeFiles();
+	}
+
+	private void closeFiles() throws IOException {
+		histFile.close();
+		metaFile.close();
+	}
+
+	//Getters of each ordinal's values
+	@Override
+	public int size() {
+		return size;
+	}
+	@Override
+	public double getSquaredNorm(int ord) {
+		return metaChunks.get(ord/CHUNK).getDouble((ord%CHUNK)*META_BYTES+32);
+	}
+	@Override
+	public double getAvgGray(int ord) {
+		return metaChunks.get(ord/CHUNK).getDouble((ord%CHUNK)*META_BYTES);
+	}
+	@Override
+	public int getWidth(int ord) {
+		return metaChunks.get(ord/CHUNK).getInt((ord%CHUNK)*META_BYTES+8);
+	}
+	@Override
+	public int getHeight(int ord) {
+		return metaChunks.get(ord/CHUNK).getInt((ord%CHUNK)*META_BYTES+12);
+	}
+	@Override
+	public long getPerceptualHash(int ord) {
+		return metaChunks.get(ord/CHUNK).getLong((ord%CHUNK)*META_BYTES+16);
+	}
+	@Override
+	public boolean hasPerceptualHash(int ord) {
+		return metaChunks.get(ord/CHUNK).getInt((ord%CHUNK)*META_BYTES+24) != 0;
+	}
+}
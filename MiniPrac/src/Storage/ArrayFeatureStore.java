@@ -0,0 +1,151 @@
+package Storage;
+
+import java.util.Arrays;
+
+import DataCalculations.HistogramKernels;
+
+/**
+ * FeatureStore kept on the heap in a few primitive arrays instead of one object per product
+ * Histograms live one after the other in a single float matrix indexed by ordinal,
+ * with parallel arrays for gray,width,height and hash, so scanning all products walks memory in order.
+ */
+public class ArrayFeatureStore extends FeatureStore {
+	private float[] hists;//row ordinal holds the histogram of product ordinal
+	private double[] grays;
+	private double[] norms;//sum of squares of each stored histogram
+	private int[] widths, heights;
+	private long[] hashes;
+	private boolean[] hashed;
+	private int size;//number of ordinals handed out
+
+	public ArrayFeatureStore() {
+		this(64);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity number of products room is made for up front
+	 */
+	public ArrayFeatureStore(int capacity) {
+		capacity = Math.max(1,capacity);
+		this.hists = new float[capacity*BINS];
+		this.grays = new double[capacity];
+		this.norms = new double[capacity];
+		this.widths = new int[capacity];
+		this.heights = new int[capacity];
+		this.hashes = new long[capacity];
+		this.hashed = new boolean[capacity];
+	}
+
+	@Override
+	public synchronized int add(double avgGray,double[] rgbHist,int width,int height,boolean hasHash,long pHash) {
+		int ord = takeReleased();
+		if (ord == -1) {
+			if (size == grays.length) {
+				grow();
+			}
+			ord = size++;
+		}
+		int base = ord*BINS;
+		double norm = 0;
+		for (int i = 0; i<BINS; i++) {
+			float v = (float)rgbHist[i];
+			hists[base+i] = v;
+			norm += (double)v*v;//of the stored floats so it matches what dot reads
+		}
+		norms[ord] = norm;
+		grays[ord] = avgGray;
+		widths[ord] = width;
+		heights[ord] = height;
+		hashes[ord] = pHash;
+		hashed[ord] = hasHash;
+		return ord;
+	}
+
+	/**
+	 * Empties the store,the arrays keep their room and later adds write over them from the start
+	 */
+	@Override
+	public synchronized void clear() {
+		size = 0;
+		clearReleased();
+	}
+
+	/**
+	 * Doubles the room in every array
+	 */
+	private void grow() {
+		int capacity = grays.length*2;
+		hists = Arrays.copyOf(hists,capacity*BINS);
+		grays = Arrays.copyOf(grays,capacity);
+		norms = Arrays.copyOf(norms,capacity);
+		widths = Arrays.copyOf(widths,capacity);
+		heights = Arrays.copyOf(heights,capacity);
+		hashes = Arrays.copyOf(hashes,capacity);
+		hashed = Arrays.copyOf(hashed,capacity);
+	}
+
+	@Override
+	public void copyHistogram(int ord,double[] dst) {
+		int base = ord*BINS;
+		for (int i = 0; i<BINS; i++) {
+			dst[i] = hists[base+i];
+		}
+	}
+
+	@Override
+	public double dot(int a,int b) {
+		return HistogramKernels.INSTANCE.dot(hists,a*BINS,hists,b*BINS,BINS);
+	}
+
+	@Override
+	public double dot(int ord,double[] other) {
+		return HistogramKernels.INSTANCE.dot(hists,ord*BINS,other);
+	}
+
+	@Override
+	public double squaredHistogramDistance(int ord,double[] other,double otherNorm,double limit) {
+		int base = ord*BINS;
+		double sum = 0;
+		for (int i = 0; i<BINS; i += 32) {
+			for (int j = i; j<i+32; j++) {
+				double d = hists[base+j]-other[j];
+				sum += d*d;
+			}
+			if (sum > limit) {
+				break;//already too far,the caller only needs to know that
+			}
+		}
+		return sum;
+	}
+
+	//Getters of each ordinal's values
+	@Override
+	public int size() {
+		return size;
+	}
+	@Override
+	public double getSquaredNorm(int ord) {
+		return norms[ord];
+	}
+	@Override
+	public double getAvgGray(int ord) {
+		return grays[ord];
+	}
+	@Override
+	public int getWidth(int ord) {
+		return widths[ord];
+	}
+	@Override
+	public int getHeight(int ord) {
+		return heights[ord];
+	}
+	@Override
+	public long getPerceptualHash(int ord) {
+		return hashes[ord];
+	}
+	@Override
+	public boolean hasPerceptualHash(int ord) {
+		return hashed[ord];
+	}
+}
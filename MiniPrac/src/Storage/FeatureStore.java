@@ -0,0 +1,177 @@
+package Storage;
+
+import java.util.BitSet;
+
+/**
+ * Keeps the features of many products packed together instead of one object per product
+ * Every product gets an ordinal and Features that are attached to a store are just views of one ordinal.
+ * ArrayFeatureStore keeps everything on the heap,Memory.MappedFeatureStore keeps it in a memory-mapped file.
+ * Ordinals of removed products are released and handed out again before the store grows
+ */
+public abstract class FeatureStore {
+	public static final int BINS = 256;//histogram entries per product
+
+	private final BitSet released = new BitSet();//ordinals given back and not handed out again yet
+
+	/**
+	 * Copies features into the store
+	 * @param avgGray
+	 * @param rgbHist
+	 * @param width
+	 * @param height
+	 * @param hasHash
+	 * @param pHash
+	 * @return the ordinal the features were stored at
+	 */
+	public abstract int add(double avgGray,double[] rgbHist,int width,int height,boolean hasHash,long pHash);
+
+	/**
+	 * Copies the histogram of an ordinal into dst
+	 * @param ord
+	 * @param dst array of at least BINS entries
+	 */
+	public abstract void copyHistogram(int ord,double[] dst);
+
+	/**
+	 * Dot product of the histograms of two ordinals
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public abstract double dot(int a,int b);
+
+	/**
+	 * Dot product of the histogram of an ordinal and another histogram
+	 * @param ord
+	 * @param other
+	 * @return double
+	 */
+	public abstract double dot(int ord,double[] other);
+
+	/**
+	 * Sum of the squares of an ordinal's histogram as it is stored,worked out once when it is added
+	 * @param ord
+	 * @return double
+	 */
+	public abstract double getSquaredNorm(int ord);
+
+	/**
+	 * Sum of squared differences between the histograms of two ordinals
+	 * Worked out as |a|^2+|b|^2-2a.b so only the dot product touches the histograms
+	 * @param a
+	 * @param b
+	 * @return double
+	 */
+	public double squaredHistogramDistance(int a,int b) {
+		//rounding can take nearly identical histograms slightly below 0
+		return Math.max(0,getSquaredNorm(a)+getSquaredNorm(b)-2*dot(a,b));
+	}
+
+	/**
+	 * Sum of squared differences between the histogram of an ordinal and another histogram
+	 * @param ord
+	 * @param other
+	 * @param otherNorm sum of the squares of other
+	 * @return double
+	 */
+	public double squaredHistogramDistance(int ord,double[] other,double otherNorm) {
+		return Math.max(0,getSquaredNorm(ord)+otherNorm-2*dot(ord,other));
+	}
+
+	/**
+	 * squaredHistogramDistance that may stop as soon as the sum is over limit
+	 * Here the whole distance is worked out,stores that hold their bins in an array sum them bin by bin and stop early
+	 * @param ord
+	 * @param other
+	 * @param otherNorm sum of the squares of other
+	 * @param limit
+	 * @return the distance,or a partial sum over limit
+	 */
+	public double squaredHistogramDistance(int ord,double[] other,double otherNorm,double limit) {
+		return squaredHistogramDistance(ord,other,otherNorm);
+	}
+
+	/**
+	 * Gives an ordinal back so a later add reuses its room
+	 * Views of it must not be used after this,Features.detach copies their histogram out first
+	 * @param ord
+	 */
+	public synchronized void release(int ord) {
+		if (ord < 0 || ord >= size()) {
+			throw new IllegalArgumentException("No ordinal " + ord + " in this store");
+		}
+		if (!released.get(ord)) {
+			released.set(ord);
+			markReleased(ord);
+		}
+	}
+
+	/**
+	 * Called once an ordinal is released,stores that are kept on disk record it there
+	 * @param ord
+	 */
+	protected void markReleased(int ord) {
+	}
+
+	/**
+	 * Takes the lowest released ordinal to add into,so the live ordinals stay packed at the front
+	 * @return the ordinal,or -1 if none are released
+	 */
+	protected final int takeReleased() {
+		int ord = released.nextSetBit(0);
+		if (ord >= 0) {
+			released.clear(ord);
+		}
+		return ord;
+	}
+
+	/**
+	 * Marks an ordinal as released without calling markReleased,for stores reading back what they recorded
+	 * @param ord
+	 */
+	protected final void restoreReleased(int ord) {
+		released.set(ord);
+	}
+
+	/**
+	 * Forgets every released ordinal,for stores that are being emptied
+	 */
+	protected final void clearReleased() {
+		released.clear();
+	}
+
+	/**
+	 * Checks if an ordinal was released and not handed out again
+	 * @param ord
+	 * @return boolean
+	 */
+	public synchronized boolean isReleased(int ord) {
+		return released.get(ord);
+	}
+
+	/**
+	 * Number of released ordinals waiting to be reused
+	 * @return int
+	 */
+	public synchronized int releasedCount() {
+		return released.cardinality();
+	}
+
+	/**
+	 * Number of ordinals handed out,released ones included
+	 * @return int
+	 */
+	public abstract int size();
+
+	/**
+	 * Empties the store,later adds hand out ordinals from 0 again
+	 */
+	public abstract void clear();
+
+	//Getters of each ordinal's values
+	public abstract double getAvgGray(int ord);
+	public abstract int getWidth(int ord);
+	public abstract int getHeight(int ord);
+	public abstract long getPerceptualHash(int ord);
+	public abstract boolean hasPerceptualHash(int ord);
+}
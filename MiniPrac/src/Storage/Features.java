@@ -2,13 +2,23 @@ package Storage;
 
 import java.util.Arrays;
 
+import DataCalculations.HistogramKernels;
+
 /**
  * Class representing the cropped image's features such as average color(in greyscale),width etc...
+ * Once attached to a FeatureStore the histogram is only kept in the store and this becomes a view of it
  */
 public class Features {
+	public static final int COARSE_BINS = 16;//bins of the coarse histogram,each the sum of 16 neighbouring bins
 	private double avgGray;//average gray colour
-	private double[] rgbHist;//colour spectrum for 
+	private double[] rgbHist;//colour spectrum for,null once the features are in a store
+	private double norm;//sum of squares of the histogram,so distances only need a dot product
+	private double[] coarse;//coarse histogram,gives a lower bound on the histogram distance
 	private int width, height;
+	private long pHash;//64 bit perceptual hash of the image
+	private boolean hashed;//false when the image was not available to hash
+	private FeatureStore store;//store holding the histogram,null for features of their own
+	private int ordinal = -1;//position in the store
 	
 	public Features(double avgGray,double[] rgbHist,int width,int height) {
 		super();
@@ -18,13 +28,175 @@ public class Features {
             throw new IllegalArgumentException("Histogram size must be " + 256);
         }
 		this.rgbHist = rgbHist;
+		this.norm = HistogramKernels.INSTANCE.dot(rgbHist,rgbHist);
+		this.coarse = coarsen(rgbHist);
 		this.width = width;
 		this.height = height;
 	}
+
+	/**
+	 * Constructor for features that come with a perceptual hash
+	 * @param avgGray
+	 * @param rgbHist
+	 * @param width
+	 * @param height
+	 * @param pHash
+	 */
+	public Features(double avgGray,double[] rgbHist,int width,int height,long pHash) {
+		this(avgGray,rgbHist,width,height);
+		this.pHash = pHash;
+		this.hashed = true;
+	}
+
+	/**
+	 * View of features already kept in a store
+	 * @param store
+	 * @param ordinal
+	 */
+	public Features(FeatureStore store,int ordinal) {
+		super();
+		this.store = store;
+		this.ordinal = ordinal;
+		this.avgGray = store.getAvgGray(ordinal);
+		this.norm = store.getSquaredNorm(ordinal);
+		this.coarse = coarsen(storedHistogram(store,ordinal));
+		this.width = store.getWidth(ordinal);
+		this.height = store.getHeight(ordinal);
+		this.pHash = store.getPerceptualHash(ordinal);
+		this.hashed = store.hasPerceptualHash(ordinal);
+	}
+
+	/**
+	 * Moves the histogram into a store and turns these features into a view of it
+	 * Does nothing if they are already in a store
+	 * @param store
+	 */
+	public synchronized void attach(FeatureStore store) {
+		if (this.store != null) {
+			return;
+		}
+		this.ordinal = store.add(avgGray,rgbHist,width,height,hashed,pHash);
+		this.store = store;
+		this.norm = store.getSquaredNorm(ordinal);//the store may keep the bins less precisely
+		this.rgbHist = null;//the store has it now
+		this.coarse = coarsen(getRgbHistogram());//from the stored bins so it still bounds distances between them
+	}
+
+	/**
+	 * Copies the histogram back out of the store so these features no longer depend on it
+	 * Does nothing if they are not in a store
+	 */
+	public synchronized void detach() {
+		if (store == null) {
+			return;
+		}
+		this.rgbHist = getRgbHistogram();//the stored bins,so the norm and coarse histogram still match
+		this.store = null;
+		this.ordinal = -1;
+	}
+
+	/**
+	 * Copy of the histogram an ordinal holds in a store
+	 * @param store
+	 * @param ordinal
+	 * @return double[]
+	 */
+	private static double[] storedHistogram(FeatureStore store,int ordinal) {
+		double[] copy = new double[FeatureStore.BINS];
+		store.copyHistogram(ordinal,copy);
+		return copy;
+	}
+
+	/**
+	 * Sums each run of 16 neighbouring bins
+	 * @param hist
+	 * @return double[] of COARSE_BINS
+	 */
+	private static double[] coarsen(double[] hist) {
+		double[] sums = new double[COARSE_BINS];
+		int run = hist.length/COARSE_BINS;
+		for (int i = 0; i<hist.length; i++) {
+			sums[i/run] += hist[i];
+		}
+		return sums;
+	}
+
+	/**
+	 * Lower bound on squaredHistogramDistance from the coarse histograms alone
+	 * By Cauchy-Schwarz (sum of a run of differences)^2 <= run length * sum of their squares,
+	 * so the coarse differences squared over the run length never exceed the full distance
+	 * @param other
+	 * @return double
+	 */
+	public double coarseHistogramBound(Features other) {
+		double sum = 0;
+		for (int i = 0; i<COARSE_BINS; i++) {
+			double d = coarse[i]-other.coarse[i];
+			sum += d*d;
+		}
+		return sum/(FeatureStore.BINS/COARSE_BINS);
+	}
+
+	/**
+	 * Sum of squared differences between this histogram and another one
+	 * Worked out as |a|^2+|b|^2-2a.b from the precomputed norms,
+	 * reading straight out of the store when the features are views so no histogram gets copied
+	 * @param other
+	 * @return double
+	 */
+	public double squaredHistogramDistance(Features other) {
+		double dot;
+		if (store != null) {
+			dot = (other.store == store) ? store.dot(ordinal,other.ordinal) : store.dot(ordinal,other.getRgbHistogram());
+		} else if (other.store != null) {
+			dot = other.store.dot(other.ordinal,rgbHist);
+		} else {
+			dot = HistogramKernels.INSTANCE.dot(rgbHist,other.rgbHist);
+		}
+		//rounding can take nearly identical histograms slightly below 0
+		return Math.max(0,norm+other.norm-2*dot);
+	}
+
+	/**
+	 * Sum of squared differences between this histogram and another one,bin by bin
+	 * It may stop as soon as the sum is over limit,so only use the result when it is within it
+	 * @param other
+	 * @param otherNorm sum of the squares of other
+	 * @param limit
+	 * @return the distance,or a partial sum over limit
+	 */
+	public double squaredHistogramDistance(double[] other,double otherNorm,double limit) {
+		if (store != null) {
+			return store.squaredHistogramDistance(ordinal,other,otherNorm,limit);
+		}
+		return abandoningDistance(rgbHist,other,limit);
+	}
+
+	/**
+	 * Sums squared differences 32 bins at a time,giving up after a block that takes it over limit
+	 * @param a
+	 * @param b
+	 * @param limit
+	 * @return double
+	 */
+	private static double abandoningDistance(double[] a,double[] b,double limit) {
+		double sum = 0;
+		for (int i = 0; i<a.length; i += 32) {
+			for (int j = i; j<Math.min(a.length,i+32); j++) {
+				double d = a[j]-b[j];
+				sum += d*d;
+			}
+			if (sum > limit) {
+				break;
+			}
+		}
+		return sum;
+	}
+
 	@Override
 	public String toString() {
 		return "Features - [avgGray =" + avgGray + "] [rgbHistogram =" +
-				Arrays.toString(rgbHist) + "] [width =" + width
+				Arrays.toString(getRgbHistogram()) + "] [width =" + width
 				+ "] [height =" + height + "]";
 	}
 	
@@ -42,7 +214,7 @@ public class Features {
 	    if( Double.compare(avgGray, that.avgGray) == 0 &&
 	           width == that.width &&
 	           height == that.height &&
-	           Arrays.equals(rgbHist, that.rgbHist)) return true;
+	           Arrays.equals(getRgbHistogram(), that.getRgbHistogram())) return true;
 	    return false;
 	}
 
@@ -53,7 +225,7 @@ public class Features {
 	public int hashCode() {
 		//created by summing up all the codes for avgGray,histogram,width and height to make it unique
 	    int result = Double.hashCode(avgGray);
-	    result += Arrays.hashCode(rgbHist);
+	    result += Arrays.hashCode(getRgbHistogram());
 	    result += Integer.hashCode(width);
 	    result += Integer.hashCode(height);
 	    return result;
@@ -63,8 +235,18 @@ public class Features {
 		public double getAvgGray() {
 			return avgGray;
 		}
+		/**
+		 * The histogram,for features in a store this is a copy so prefer squaredHistogramDistance in loops
+		 * @return double[]
+		 */
 		public double[] getRgbHistogram() {
-			return rgbHist;
+			return (store != null) ? storedHistogram(store,ordinal) : rgbHist;
+		}
+		public double getSquaredNorm() {
+			return norm;
+		}
+		public double[] getCoarseHistogram() {
+			return coarse;
 		}
 		public int getWidth() {
 			return width;
@@ -72,5 +254,17 @@ public class Features {
 		public int getHeight() {
 			return height;
 		}
+		public long getPerceptualHash() {
+			return pHash;
+		}
+		public boolean hasPerceptualHash() {
+			return hashed;
+		}
+		public FeatureStore getStore() {
+			return store;
+		}
+		public int getOrdinal() {
+			return ordinal;
+		}
 	
 }
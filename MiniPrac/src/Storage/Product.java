@@ -5,12 +5,14 @@ import javafx.scene.image.Image;
 
 public class Product {
 	private String name;//Name of product being stored
+	private int nameSymbol;//id of the name in SymbolTable.NAMES,the same for names differing only in case
 	private Features feats;//feature of each image of product ,e.g shape etc..
 	private Shelf shelf;//shelf ,product is found in 
 	private Image img;//image of product
 	private Date date;//how many days before a product expires
 	private FreshnessLvl fresh;//how fresh products are
 	private String imagePath;
+	private String featureKey;//key of the product's features in the feature cache
 
 	/**
 	 * Constructor for class
@@ -23,7 +25,8 @@ public class Product {
 	 */
 	public Product(String name,Features feats,Shelf shelf,Image img,Date date,FreshnessLvl fresh) {
 		super();
-		this.name = name;
+		this.name = SymbolTable.NAMES.intern(name);
+		this.nameSymbol = SymbolTable.NAMES.id(name);
 		this.feats = feats;
 		this.shelf = shelf;
 		this.img = img;
@@ -74,6 +77,12 @@ public class Product {
 		public void setImagePath(String imagePath) {
 			this.imagePath = imagePath;
 		}
+		public String getFeatureKey() {
+			return featureKey;
+		}
+		public void setFeatureKey(String featureKey) {
+			this.featureKey = featureKey;
+		}
 		public Date getExpiryDate() {
 			return date;
 		}
@@ -92,6 +101,16 @@ public class Product {
 		public String getShelfID() {
 			return shelf.getShelfId();
 		}
+		public int getNameSymbol() {
+			return nameSymbol;
+		}
+		/**
+		 * Id of the shelf ID in SymbolTable.SHELVES
+		 * @return int,SymbolTable.NONE if the product has no shelf
+		 */
+		public int getShelfSymbol() {
+			return (shelf == null) ? SymbolTable.NONE : shelf.getShelfSymbol();
+		}
 		public Image getImg() {
 			return img;
 		}
@@ -0,0 +1,195 @@
+package Storage;
+
+import java.util.Arrays;
+
+/**
+ * FeatureStore keeping each histogram as one byte per bin and a single scale per product
+ * A bin is stored as round(value/scale) with scale = largest bin/255, so a histogram takes 256 bytes
+ * instead of 2KB of doubles. Comparing against a full precision histogram only decodes the stored side,
+ * which is the asymmetric distance KNN uses to search a quantized catalog,
+ * and comparing two stored histograms never decodes either of them
+ */
+public class QuantizedFeatureStore extends FeatureStore {
+	public static final int LEVELS = 255;//largest code a bin can have
+
+	private byte[] codes;//row ordinal holds the codes of product ordinal,read as unsigned
+	private float[] scales;//value of one code step for each ordinal
+	private double[] norms;//sum of squares of each decoded histogram
+	private double[] grays;
+	private int[] widths, heights;
+	private long[] hashes;
+	private boolean[] hashed;
+	private int size;//number of ordinals handed out
+
+	public QuantizedFeatureStore() {
+		this(64);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity number of products room is made for up front
+	 */
+	public QuantizedFeatureStore(int capacity) {
+		capacity = Math.max(1,capacity);
+		this.codes = new byte[capacity*BINS];
+		this.scales = new float[capacity];
+		this.norms = new double[capacity];
+		this.grays = new double[capacity];
+		this.widths = new int[capacity];
+		this.heights = new int[capacity];
+		this.hashes = new long[capacity];
+		this.hashed = new boolean[capacity];
+	}
+
+	@Override
+	public synchronized int add(double avgGray,double[] rgbHist,int width,int height,boolean hasHash,long pHash) {
+		int ord = takeReleased();
+		if (ord == -1) {
+			if (size == grays.length) {
+				grow();
+			}
+			ord = size++;
+		}
+		int base = ord*BINS;
+		float scale = quantize(rgbHist,codes,base);
+		long codeNorm = 0;
+		for (int i = 0; i<BINS; i++) {
+			int c = codes[base+i] & 0xFF;
+			codeNorm += c*c;
+		}
+		scales[ord] = scale;
+		norms[ord] = (double)scale*scale*codeNorm;
+		grays[ord] = avgGray;
+		widths[ord] = width;
+		heights[ord] = height;
+		hashes[ord] = pHash;
+		hashed[ord] = hasHash;
+		return ord;
+	}
+
+	/**
+	 * Writes the codes of a histogram into dst
+	 * @param hist histogram with no negative bins
+	 * @param dst
+	 * @param offset where the BINS codes start in dst
+	 * @return the scale of the codes,0 for an empty histogram
+	 */
+	public static float quantize(double[] hist,byte[] dst,int offset) {
+		double max = 0;
+		for (int i = 0; i<BINS; i++) {
+			max = Math.max(max,hist[i]);
+		}
+		if (max == 0) {
+			Arrays.fill(dst,offset,offset+BINS,(byte)0);
+			return 0f;
+		}
+		float scale = (float)(max/LEVELS);
+		for (int i = 0; i<BINS; i++) {
+			dst[offset+i] = (byte)Math.min(LEVELS,Math.round(hist[i]/scale));
+		}
+		return scale;
+	}
+
+	/**
+	 * Empties the store,the arrays keep their room and later adds write over them from the start
+	 */
+	@Override
+	public synchronized void clear() {
+		size = 0;
+		clearReleased();
+	}
+
+	/**
+	 * Doubles the room in every array
+	 */
+	private void grow() {
+		int capacity = grays.length*2;
+		codes = Arrays.copyOf(codes,capacity*BINS);
+		scales = Arrays.copyOf(scales,capacity);
+		norms = Arrays.copyOf(norms,capacity);
+		grays = Arrays.copyOf(grays,capacity);
+		widths = Arrays.copyOf(widths,capacity);
+		heights = Arrays.copyOf(heights,capacity);
+		hashes = Arrays.copyOf(hashes,capacity);
+		hashed = Arrays.copyOf(hashed,capacity);
+	}
+
+	@Override
+	public void copyHistogram(int ord,double[] dst) {
+		byte[] c = codes;
+		int base = ord*BINS;
+		float scale = scales[ord];
+		for (int i = 0; i<BINS; i++) {
+			dst[i] = (c[base+i] & 0xFF)*scale;
+		}
+	}
+
+	/**
+	 * Both sides are codes so the products are summed as ints and scaled once at the end
+	 */
+	@Override
+	public double dot(int a,int b) {
+		byte[] c = codes;
+		int baseA = a*BINS, baseB = b*BINS;
+		int sum = 0;//at most 256*255*255 so it cannot overflow
+		for (int i = 0; i<BINS; i++) {
+			sum += (c[baseA+i] & 0xFF)*(c[baseB+i] & 0xFF);
+		}
+		return (double)scales[a]*scales[b]*sum;
+	}
+
+	/**
+	 * Asymmetric,the query keeps full precision and only the stored codes are decoded
+	 */
+	@Override
+	public double dot(int ord,double[] other) {
+		byte[] c = codes;
+		int base = ord*BINS;
+		double sum = 0;
+		for (int i = 0; i<BINS; i++) {
+			sum += (c[base+i] & 0xFF)*other[i];
+		}
+		return scales[ord]*sum;
+	}
+
+	/**
+	 * Bytes used by the histograms of every ordinal,codes and scales
+	 * @return long
+	 */
+	public long histogramBytes() {
+		return (long)size*(BINS+Float.BYTES);
+	}
+
+	//Getters of each ordinal's values
+	@Override
+	public int size() {
+		return size;
+	}
+	public float getScale(int ord) {
+		return scales[ord];
+	}
+	@Override
+	public double getSquaredNorm(int ord) {
+		return norms[ord];
+	}
+	@Override
+	public double getAvgGray(int ord) {
+		return grays[ord];
+	}
+	@Override
+	public int getWidth(int ord) {
+		return widths[ord];
+	}
+	@Override
+	public int getHeight(int ord) {
+		return heights[ord];
+	}
+	@Override
+	public long getPerceptualHash(int ord) {
+		return hashes[ord];
+	}
+	@Override
+	public boolean hasPerceptualHash(int ord) {
+		return hashed[ord];
+	}
+}
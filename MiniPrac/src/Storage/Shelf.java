@@ -9,12 +9,14 @@ import javafx.scene.image.Image;
  */
 public class Shelf {
 	private String shelfId;
+	private int shelfSymbol;//id of shelfId in SymbolTable.SHELVES
 	private Image shelfImg;
 	private List<Product> productList;
 	
 	public Shelf(String shelfId,Image shelfImage) {
 		super();
-		this.shelfId = shelfId;
+		this.shelfId = SymbolTable.SHELVES.intern(shelfId);
+		this.shelfSymbol = SymbolTable.SHELVES.id(shelfId);
 		this.shelfImg = shelfImage;
 		this.productList = new ArrayList<>();
 	}
@@ -38,6 +40,9 @@ public class Shelf {
 	public String getShelfId() {
 		return shelfId;
 	}
+	public int getShelfSymbol() {
+		return shelfSymbol;
+	}
 	public Image getShelfImage() {
 		return shelfImg;
 	}
@@ -0,0 +1,81 @@
+package Storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every distinct string a dense int id ignoring case,so strings that equalsIgnoreCase get the same id
+ * Products and shelves keep the ids of their names so distance scoring compares ints instead of strings.
+ * It also hands out one shared instance of each exact string,so a name used by thousands of products is only kept once
+ */
+public class SymbolTable {
+	public static final SymbolTable NAMES = new SymbolTable();//product names
+	public static final SymbolTable SHELVES = new SymbolTable();//shelf IDs
+	public static final int NONE = -1;//id of null,it matches nothing
+
+	private final Map<String,Integer> ids = new HashMap<>();//folded string to id
+	private final List<String> folded = new ArrayList<>();//folded string of each id
+	private final Map<String,String> canonical = new HashMap<>();//shared instance of each exact string
+
+	/**
+	 * Id of a string,the same for every string that equalsIgnoreCase it
+	 * @param s
+	 * @return int,NONE for null
+	 */
+	public synchronized int id(String s) {
+		if (s == null) {
+			return NONE;
+		}
+		String key = fold(s);
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = folded.size();
+			ids.put(key,id);
+			folded.add(key);
+		}
+		return id;
+	}
+
+	/**
+	 * The shared instance of a string,keeping its case
+	 * @param s
+	 * @return String,null for null
+	 */
+	public synchronized String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		String shared = canonical.putIfAbsent(s,s);
+		return (shared == null) ? s : shared;
+	}
+
+	/**
+	 * Folds case the way equalsIgnoreCase compares characters,upper then lower case
+	 * @param s
+	 * @return String
+	 */
+	private static String fold(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		s.codePoints().forEach(c -> sb.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+		return sb.toString();
+	}
+
+	/**
+	 * Folded string of an id
+	 * @param id
+	 * @return String
+	 */
+	public synchronized String get(int id) {
+		return folded.get(id);
+	}
+
+	/**
+	 * Number of ids handed out
+	 * @return int
+	 */
+	public synchronized int size() {
+		return folded.size();
+	}
+}
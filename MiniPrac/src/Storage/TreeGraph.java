@@ -1,5 +1,9 @@
 package Storage;
+import DataCalculations.BatchKNN;
+import DataCalculations.DistanceMetric;
 import  DataCalculations.KNN;
+import DataCalculations.KSelector;
+import DataCalculations.ProductIndex;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -11,7 +15,14 @@ import java.util.Set;
  * Class abstracts products as nodes and similarities as edges
  */
 public class TreeGraph {
+	//Products not in the graph are matched to at most this many stored products
+	public static final int UNLINKED_K = 5;
+	//and only to those this close,about the difference between two crops of the same product
+	public static final double UNLINKED_MAX_DISTANCE = 25.0;
 	private Map<Product,List<Product>> adjList; // based on similarity
+	private ProductIndex index;//nearest stored products by features,null if there is none
+	private DistanceMetric metric;//how neighbours are ranked,null to use KNN's
+	private KSelector kSelector;//picks one k for the whole graph,null to pick it from each product's neighbours
 	
 	public TreeGraph(Map<Product,List<Product>> adjacencyList) {
 		super();
@@ -25,7 +36,9 @@ public class TreeGraph {
     public void addProduct(Product product) {
     	//uses the equals() and hashCode() methods of the Product class
     	//to determine if a product already exists in the Map
-    	adjList.putIfAbsent(product, new ArrayList<>());
+    	if (adjList.putIfAbsent(product, new ArrayList<>()) == null && kSelector != null) {
+    		kSelector.recordChanges(1);
+    	}
     }
 
     /**
@@ -74,22 +87,61 @@ public class TreeGraph {
 
     /**
      * Find similar products based on freshness or features using KNN
+     * A product that is not in the graph has no edges,so it gets the stored products nearest to it from the index,
+     * which always ranks with KNN's metric
      * @param product
      * @param k
      * @return List<Product>
      */
     public List<Product> findSimilarProducts(Product product) {
+    	if (index != null && !adjList.containsKey(product) && product.getFeatures() != null) {
+    		return index.nearest(product.getFeatures(),UNLINKED_K,UNLINKED_MAX_DISTANCE);
+    	}
     	List<Product> neighbors = getNeighbors(product);//retrieving all directly related neighbors of product
     	if (neighbors.isEmpty()) {
     		 return new ArrayList<>();
     	}
-    	// Find best k using neighbors instead of allProducts
-        int optimalK = KNN.findOptimalK(neighbors, Math.min(10,neighbors.size()));
-        neighbors.sort(Comparator.comparingDouble(p -> KNN.computeDistance(product,p)));//arranging them in  in ascending order of distance from the given product by difference
+    	DistanceMetric m = (metric != null) ? metric : KNN.getMetric();
+    	// Find best k using neighbors instead of allProducts,unless one k is picked for the whole graph
+        int optimalK = (kSelector != null) ? kSelector.getK(adjList.keySet()) : KNN.findOptimalK(neighbors, Math.min(10,neighbors.size()), m);
+        if (m == DistanceMetric.EUCLIDEAN) {
+        	return KNN.getCascade().nearest(product,neighbors,optimalK);//only the optimalK nearest are fully scored
+        }
+        neighbors.sort(Comparator.comparingDouble(p -> KNN.computeDistance(product,p,m)));//arranging them in  in ascending order of distance from the given product by difference
         List<Product> output = neighbors.subList(0, Math.min(optimalK,neighbors.size()));
         return output;
     }
 
+    /**
+     * Sets the index used to find products similar to ones that are not in the graph
+     * @param index
+     */
+    public void setIndex(ProductIndex index) {
+    	this.index = index;
+    }
+
+    /**
+     * Sets the metric findSimilarProducts ranks neighbours with
+     * @param metric null to use KNN's
+     */
+    public void setMetric(DistanceMetric metric) {
+    	this.metric = metric;
+    }
+    public DistanceMetric getMetric() {
+    	return metric;
+    }
+
+    /**
+     * Sets what picks k in findSimilarProducts,it is told about every product added or removed
+     * @param kSelector null to pick k from each product's neighbours
+     */
+    public void setKSelector(KSelector kSelector) {
+    	this.kSelector = kSelector;
+    }
+    public KSelector getKSelector() {
+    	return kSelector;
+    }
+
     /**
      * Check if the graph contains a product
      * @param product
@@ -124,7 +176,9 @@ public class TreeGraph {
      * @param p
      */
     public void removeProduct(Product p) {
-    	adjList.remove(p);
+    	if (adjList.remove(p) != null && kSelector != null) {
+    		kSelector.recordChanges(1);
+    	}
     	adjList.values().forEach(list -> list.remove(p));
     }
     
@@ -137,4 +191,19 @@ public class TreeGraph {
         List<Product> similar = findSimilarProducts(new Product("",features,null,null,null,null));//creating a dummy product with features that will be compared to
         return similar.isEmpty() ? null : similar.get(0);//if there is a similar product return it
     }
+
+    /**
+     * Classifies many crops at once by scanning every product in the graph
+     * Each crop gets the nearest product within UNLINKED_MAX_DISTANCE,like classifyProduct does through an exact index
+     * @param features
+     * @param batch runs the scan and sets its executor and metric
+     * @return one product per crop in the same order,null where nothing is close enough
+     */
+    public List<Product> classifyProducts(List<Features> features,BatchKNN batch) {
+        List<Product> output = new ArrayList<>();
+        for (List<Product> similar : batch.nearest(features,new ArrayList<>(adjList.keySet()),1,UNLINKED_MAX_DISTANCE)) {
+        	output.add(similar.isEmpty() ? null : similar.get(0));
+        }
+        return output;
+    }
 }
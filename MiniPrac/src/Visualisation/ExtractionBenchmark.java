@@ -0,0 +1,74 @@
+package Visualisation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+
+/**
+ * Times ImageProcessor.extractFeatures,which reads rows in bulk into an int[],against extractFeaturesPerPixel,
+ * which resizes first and reads one Color per pixel
+ * Both paths are warmed up on every image before anything is timed,then each round times both on all the images.
+ * Run with the JavaFX jars on the class path,eg. java -cp bin:lib/* Visualisation.ExtractionBenchmark [images...]
+ * With no arguments it uses the jpgs in data/
+ */
+public class ExtractionBenchmark {
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) throws IOException {
+		//images are made without starting the FX toolkit,the software pipeline needs no display
+		System.setProperty("prism.order","sw");
+		List<File> files = new ArrayList<>();
+		for (String arg : args) {
+			files.add(new File(arg));
+		}
+		if (files.isEmpty()) {
+			File[] data = new File("data").listFiles((dir,name) -> name.endsWith(".jpg"));
+			if (data != null) {
+				files.addAll(List.of(data));
+			}
+		}
+		if (files.isEmpty()) {
+			System.out.println("No images given and none in data/");
+			return;
+		}
+		List<Image> images = new ArrayList<>();
+		long pixels = 0;
+		for (File file : files) {
+			Image img = SwingFXUtils.toFXImage(ImageIO.read(file),null);
+			images.add(img);
+			pixels += (long)img.getWidth()*(long)img.getHeight();
+		}
+
+		double sink = 0;//keeps the results alive so the work is not optimised away
+		for (int r = 0; r<WARMUP_ROUNDS; r++) {
+			for (Image img : images) {
+				sink += ImageProcessor.extractFeatures(img).getAvgGray();
+				sink += ImageProcessor.extractFeaturesPerPixel(img).getAvgGray();
+			}
+		}
+		long bulkNanos = 0, perPixelNanos = 0;
+		for (int r = 0; r<ROUNDS; r++) {
+			long start = System.nanoTime();
+			for (Image img : images) {
+				sink += ImageProcessor.extractFeatures(img).getAvgGray();
+			}
+			long mid = System.nanoTime();
+			for (Image img : images) {
+				sink += ImageProcessor.extractFeaturesPerPixel(img).getAvgGray();
+			}
+			bulkNanos += mid-start;
+			perPixelNanos += System.nanoTime()-mid;
+		}
+		int runs = ROUNDS*images.size();
+		System.out.println(images.size() + " images," + pixels + " source pixels," + ROUNDS + " rounds after " + WARMUP_ROUNDS + " warm-up rounds");
+		System.out.println("bulk int[] rows:   " + String.format("%.3f",bulkNanos/1e6/runs) + " ms per image");
+		System.out.println("per pixel Color:   " + String.format("%.3f",perPixelNanos/1e6/runs) + " ms per image");
+		System.out.println("speed-up:          " + String.format("%.1f",(double)perPixelNanos/bulkNanos) + "x");
+		System.out.println("(checksum " + String.format("%.1f",sink) + ")");
+	}
+}
@@ -1,17 +1,22 @@
 package Visualisation;
 
+import DataCalculations.FeatureExtractor;
 import DataCalculations.FreshCalculator;
 import DataCalculations.GroupClust;
+import DataCalculations.IntegralHistogram;
+import DataCalculations.ShelfScanner;
+import Memory.FeatureCache;
 import Memory.ManageData;
 import Storage.*;
 import javafx.application.Application;
+import javafx.concurrent.Task;
+import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
@@ -19,6 +24,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -31,8 +37,13 @@ public class GuiHandler extends Application {
     private ImgPanel imagePanel;
     private ManageData dataManager;
     private TextField nameField, shelfField, EyearField, EmonthField, EdayField, TyearField, TmonthField, TdayField;
-    private Image loadedImage,originalImage;
+    private Image originalImage;
+    private BufferedImage shelfPixels;//copy of originalImage's pixels that several threads can read at once
+    private IntegralHistogram shelfIndex;//integral histogram of originalImage,null until the first scan of it
+    private ImageRegion loadedRegion;//part of originalImage currently shown
+    private Map<String,Shelf> loadedShelves = new HashMap<>();//shelves photographed in originalImage,by ID
     private String ImgPath;
+    private String ImgHash;//content hash of the loaded image file,for the feature cache
     private Date today;
     private GroupClust Gclust;
 
@@ -76,6 +87,7 @@ public class GuiHandler extends Application {
         Button viewFreshnessGridBtn = new Button("View Freshness");
         Button rotationBtn = new Button("Rotation"); 
         Button resetImageBtn = new Button("Reset Image");
+        Button detectBtn = new Button("Detect Products");
         //actions of each button
         loadImageBtn.setOnAction(e -> loadImage());
         cropBtn.setOnAction(e -> cropImage());
@@ -86,6 +98,7 @@ public class GuiHandler extends Application {
         viewFreshnessGridBtn.setOnAction(e -> showFreshnessGrid());
         resetImageBtn.setOnAction(e -> resetImage());
         rotationBtn.setOnAction(e -> showRotationRecommendations());
+        detectBtn.setOnAction(e -> detectProducts());
         //input being taken in
         inputPanel.add(new Label("Product Name:"),0,0);
         inputPanel.add(nameField,1,0);
@@ -108,6 +121,7 @@ public class GuiHandler extends Application {
         inputPanel.add(viewFreshnessGridBtn, 0, 7);
         inputPanel.add(rotationBtn,1,7);
         inputPanel.add(resetImageBtn, 0, 8);
+        inputPanel.add(detectBtn,1,8);
 
         return inputPanel;
     }
@@ -117,9 +131,8 @@ public class GuiHandler extends Application {
      */
     private void resetImage() {
         if (originalImage != null) {
-            loadedImage = new WritableImage(originalImage.getPixelReader(),
-            		(int)originalImage.getWidth(),(int)originalImage.getHeight());
-            imagePanel.setImage(loadedImage);
+            loadedRegion = new ImageRegion(originalImage);
+            imagePanel.setRegion(loadedRegion);
         } else {
             showError("No image to reset.");
         }
@@ -134,9 +147,13 @@ public class GuiHandler extends Application {
         if (file != null) {
             ImgPath = file.getAbsolutePath();
             try {
+                ImgHash = FeatureCache.contentHash(file);
                 originalImage = new Image(file.toURI().toString());
-                loadedImage = new WritableImage(originalImage.getPixelReader(),(int)originalImage.getWidth(),(int)originalImage.getHeight());
-                imagePanel.setImage(loadedImage);
+                shelfPixels = SwingFXUtils.fromFXImage(originalImage,null);
+                shelfIndex = null;//it was for the previous photo
+                loadedShelves = new HashMap<>();//a new photo means new shelves
+                loadedRegion = new ImageRegion(originalImage);
+                imagePanel.setRegion(loadedRegion);
             } catch (Exception ex) {
                 showError("Failed to load image.");
             }
@@ -153,14 +170,76 @@ public class GuiHandler extends Application {
                 showError("Please draw a region to crop.");
                 return;
             }
-            Image cropped = ImageProcessor.cropImage(loadedImage,(int)r.getX(),(int)r.getY(),(int)r.getWidth(),(int)r.getHeight());
-            loadedImage = cropped;
-            imagePanel.setImage(cropped);
+            //only a view of the original is kept,the pixels get copied once the product is added
+            loadedRegion = loadedRegion.subRegion((int)r.getX(),(int)r.getY(),(int)r.getWidth(),(int)r.getHeight());
+            imagePanel.setRegion(loadedRegion);
         } catch (Exception ex) {
             showError("Invalid crop parameters.");
         }
     }
 
+    /**
+     * Scans the whole loaded shelf photo for products that look like ones already added
+     */
+    private void detectProducts() {
+        if (originalImage == null) {
+            showError("Please load a shelf image first.");
+            return;
+        }
+        if (dataManager.getAllProducts().isEmpty()) {
+            showError("Add some products first so there is something to look for.");
+            return;
+        }
+        Image image = originalImage;
+        //a copy,products can be added while the scan runs
+        ScanTask scan = new ScanTask(shelfPixels,shelfIndex,new ArrayList<>(dataManager.getAllProducts()));
+        scan.setOnSucceeded(e -> {
+            if (image == originalImage) {//another photo may have been loaded meanwhile
+                shelfIndex = scan.getIndex();
+            }
+            List<ShelfScanner.Detection> found = scan.getValue();
+            if (found.isEmpty()) {
+                showMessage("No known products found on this shelf.");
+                return;
+            }
+            StringBuilder sb = new StringBuilder("Found " + found.size() + " products:\n");
+            found.forEach(d -> sb.append(d).append("\n"));
+            showMessage(sb.toString());
+        });
+        scan.setOnFailed(e -> showError("Failed to scan the shelf."));
+        Thread worker = new Thread(scan,"shelf-scan");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Scans a shelf photo off the FX thread,building its integral histogram first if it has none yet
+     */
+    private static class ScanTask extends Task<List<ShelfScanner.Detection>> {
+        private final BufferedImage pixels;
+        private final List<Product> catalog;
+        private volatile IntegralHistogram index;
+
+        ScanTask(BufferedImage pixels,IntegralHistogram index,List<Product> catalog) {
+            this.pixels = pixels;
+            this.index = index;
+            this.catalog = catalog;
+        }
+
+        @Override
+        protected List<ShelfScanner.Detection> call() {
+            if (index == null) {
+                int width = pixels.getWidth();
+                index = new IntegralHistogram((y,row) -> pixels.getRGB(0,y,width,1,row,0,width),width,pixels.getHeight());
+            }
+            return new ShelfScanner(index).scan(catalog);
+        }
+
+        IntegralHistogram getIndex() {
+            return index;
+        }
+    }
+
     /**
      * adds a product to list of products in shelves
      */
@@ -180,7 +259,12 @@ public class GuiHandler extends Application {
             int eday = Integer.parseInt(EdayField.getText());
             Date expiry = new Date(eyear, emonth, eday);
             today = new Date(tyear, tmonth, tday);
-            Features feats = ImageProcessor.extractFeatures(loadedImage);
+            //the same crop of the same file is only ever extracted once
+            String featureKey = FeatureCache.key(ImgHash,loadedRegion.getX(),loadedRegion.getY(),loadedRegion.getWidth(),loadedRegion.getHeight());
+            ImageRegion region = loadedRegion;
+            //big crops of a shelf photo are sampled in bands on every core,small ones stay on this thread
+            Features feats = dataManager.getFeatureCache().getOrCompute(featureKey,() -> FeatureExtractor.extractParallel(shelfPixels,
+            		region.getX(),region.getY(),region.getWidth(),region.getHeight()));
             List<Product> similar = dataManager.findSimilarTo(new Product(name,feats,new Shelf(shelf,null),null,null,null));
             if (!similar.isEmpty()) {
                 Product suggested = similar.get(0);
@@ -188,9 +272,11 @@ public class GuiHandler extends Application {
                 alert.setContentText("Suggested match: " + suggested.getName() + ". Accept?");
                 if (alert.showAndWait().get() == ButtonType.OK) {
                     // Create a temporary product for similarity comparison
-                    Product tempProduct = new Product(name, feats, new Shelf(shelf,loadedImage),loadedImage,expiry, 
+                    Image productImg = loadedRegion.toImage();
+                    Product tempProduct = new Product(name, feats, loadedShelf(shelf),productImg,expiry, 
                                                      FreshCalculator.getFreshnessLevel(today,expiry));
                     tempProduct.setImagePath(ImgPath);
+                    tempProduct.setFeatureKey(featureKey);
                     // Add similarity edge
                     dataManager.addSimilarity(tempProduct, suggested);
                     // Update suggested product’s metadata
@@ -199,9 +285,15 @@ public class GuiHandler extends Application {
                     return;
                 }
             }
-            Product product = new Product(name,feats,new Shelf(shelf,loadedImage),loadedImage,expiry,FreshCalculator.getFreshnessLevel(today,expiry));
+            Image productImg = loadedRegion.toImage();//the crop needs its own pixels from here on
+            Product product = new Product(name,feats,loadedShelf(shelf),productImg,expiry,FreshCalculator.getFreshnessLevel(today,expiry));
             product.setImagePath(ImgPath);
-            dataManager.addProduct(product);
+            product.setFeatureKey(featureKey);
+            if (!dataManager.addProduct(product)) {
+                showMessage("This product was already added: " + dataManager.findDuplicate(product).getName());
+                return;
+            }
+            loadedShelf(shelf).addProductList(product);
             showMessage("Product added.");
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -229,6 +321,15 @@ public class GuiHandler extends Application {
         graphStage.show();
     }
 
+    /**
+     * Shelf for the given ID in the loaded photo,so all crops of one photo share one shelf
+     * @param shelfId
+     * @return Shelf
+     */
+    private Shelf loadedShelf(String shelfId) {
+        return loadedShelves.computeIfAbsent(shelfId,id -> new Shelf(id,originalImage));
+    }
+
     /**
      * Saves the list of products and shelves if needed for use at a later stage
      */
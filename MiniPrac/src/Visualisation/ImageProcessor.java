@@ -1,19 +1,36 @@
 package Visualisation;
+import DataCalculations.FeatureExtractor;
 import Storage.Features;
 import javafx.scene.image.Image;
 import javafx.scene.image.PixelReader;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import java.io.File;
 import java.io.IOException;
+import java.nio.IntBuffer;
 /**
  * Just read an image and handles image loading and feature extraction
  * Make sure GUI has input fields for the values of crop and a "Crop" button.
  */
 public class ImageProcessor {
 	//All images will be resized to this scale to help improve feature extraction
-	public static final int RESIZED_WIDTH = 100;
-	public static final int RESIZED_HEIGHT = 100;
+	public static final int RESIZED_WIDTH = FeatureExtractor.RESIZED_WIDTH;
+	public static final int RESIZED_HEIGHT = FeatureExtractor.RESIZED_HEIGHT;
+	//Largest side of images that are only ever shown as thumbnails
+	public static final int THUMBNAIL_SIZE = 100;
 	
+	/**
+	 * Loads an image that is only going to be shown small
+	 * The decoder scales it while decoding so the full resolution image is never held in memory,
+	 * images that need to be cropped and zoomed should still be loaded at full size
+	 * @param imagePath
+	 * @return Image at most THUMBNAIL_SIZE x THUMBNAIL_SIZE
+	 */
+	public static Image loadThumbnail(String imagePath) {
+		return new Image(new File(imagePath).toURI().toString(),THUMBNAIL_SIZE,THUMBNAIL_SIZE,true,true);
+	}
+
 	/**
 	 * Crops the given image to a specified region.
 	 * @param img The original BufferedImage
@@ -24,40 +41,52 @@ public class ImageProcessor {
 	 * @return Cropped BufferedImage
 	 */
 	public static Image cropImage(Image img,int x,int y,int width,int height) {
-		// Ensure crop box is within bounds
-        int maxX = Math.min(x+width,(int) img.getWidth());
-        int maxY = Math.min(y+height,(int) img.getHeight());
-        int safeWidth = maxX - x;
-        int safeHeight = maxY - y;
-
-        PixelReader reader = img.getPixelReader();
-        WritableImage cropped = new WritableImage(safeWidth,safeHeight);
-        PixelWriter writer = cropped.getPixelWriter();
-
-        for (int i = 0; i<safeWidth; i++) {
-            for (int j = 0; j<safeHeight; j++) {
-                writer.setColor(i,j,reader.getColor(x+i,(y+j)));
-            }
-        }
-        return cropped;
+		//the region clips the crop box to the image and copies it row by row
+        return new ImageRegion(img,x,y,width,height).toImage();
 	}
 	/**
      * Loads an image from file path and extracts its features.
+     * The image is sampled straight into the histogram at RESIZED_WIDTH x RESIZED_HEIGHT,
+     * picking the same source pixels resizeImage would, so no resized copy is ever made
      * @param imagePath path to the image file
      * @return Features object containing image properties
      * @throws IOException if image cannot be read
      */
     public static Features extractFeatures(Image img) throws IOException {
+        return extractFeatures(new ImageRegion(img));
+    }
+
+    /**
+     * Extracts features of a region,reading the pixels straight out of its source image
+     * @param region
+     * @return Features
+     * @throws IOException
+     */
+    public static Features extractFeatures(ImageRegion region) throws IOException {
+        PixelReader reader = region.getSource().getPixelReader();
+        WritablePixelFormat<IntBuffer> format = WritablePixelFormat.getIntArgbInstance();
+        int width = region.getWidth();
+        //the sampling itself is shared with the headless extractor so both give the same Features
+        return FeatureExtractor.extract((y,row) -> reader.getPixels(region.getX(),region.getY()+y,width,1,format,row,0,width),
+        		width,region.getHeight());
+    }
+
+    /**
+     * Original version of extractFeatures that resizes first and then reads one Color at a time
+     * Kept as the reference path to compare the fused version against
+     * @param img
+     * @return Features
+     * @throws IOException
+     */
+    public static Features extractFeaturesPerPixel(Image img) throws IOException {
         //resize to fixed dimensions
         img = resizeImage(img);
         
         int width =(int) img.getWidth();
         int height =(int) img.getHeight();
-        double avgGray = 0;
-        double[] rgbHist =new double[256]; // simplistic grayscale histogram
-
         long TGray = 0;
         int[] hist = new int[256];
+        int[] blockSums = new int[FeatureExtractor.HASH_COLS*FeatureExtractor.HASH_ROWS];
         PixelReader reader = img.getPixelReader();
       
         for (int y = 0; y < height; y++) {
@@ -71,36 +100,51 @@ public class ImageProcessor {
                 int gray = (red+green+blue) / 3; // Average color
                 hist[gray]++; // Forming color histogram
                 TGray += gray;
+                blockSums[FeatureExtractor.hashBlock(x,y)] += gray;
             }
         }
-        avgGray = TGray/(double)(width*height);
-        //Normalize histogram to get frequency distribution
-        for (int i = 0; i<256; i++) {
-        	rgbHist[i] = hist[i]/(double)(width*height);
-        }
-        Features feats = new Features(avgGray,rgbHist,width,height); 
-        return feats;
+        return FeatureExtractor.toFeatures(hist,TGray,blockSums,width,height);
     }
+
     /**
      * Resizes an image to the specified width and height
+     * Source rows are read in bulk and only rows that are sampled get read
      * @param originalImage
      * @return
      */
     public static Image resizeImage(Image Img) {
-    	int OWidth = (int)Img.getWidth();
-        int OHeight = (int)Img.getHeight();
+        return resizeImage(new ImageRegion(Img));
+    }
+
+    /**
+     * Resizes a region of an image without copying the region out first
+     * @param region
+     * @return
+     */
+    public static Image resizeImage(ImageRegion region) {
+    	int OWidth = region.getWidth();
+        int OHeight = region.getHeight();
         WritableImage resizedImage = new WritableImage(RESIZED_WIDTH,RESIZED_HEIGHT);
-        PixelReader reader = Img.getPixelReader();
+        PixelReader reader = region.getSource().getPixelReader();
         PixelWriter writer = resizedImage.getPixelWriter();
+        WritablePixelFormat<IntBuffer> format = WritablePixelFormat.getIntArgbInstance();
 
+        int[] srcXs = FeatureExtractor.sampleColumns(OWidth);
+        int[] srcRow = new int[OWidth];//reused for every source row
+        int[] resized = new int[RESIZED_WIDTH*RESIZED_HEIGHT];
+        int lastY = -1;
         for (int y = 0; y<RESIZED_HEIGHT; y++) {
+            // Calculate the corresponding source coordinates
+            int srcY = FeatureExtractor.sampleRow(y,OHeight);
+            if (srcY != lastY) {//neighbouring rows can sample the same source row
+                reader.getPixels(region.getX(),region.getY()+srcY,OWidth,1,format,srcRow,0,OWidth);
+                lastY = srcY;
+            }
             for (int x = 0; x<RESIZED_WIDTH; x++) {
-                // Calculate the corresponding source coordinates
-                int srcX = (int)((x/(double)RESIZED_WIDTH)*OWidth);
-                int srcY = (int)((y/(double)RESIZED_HEIGHT)*OHeight);
-                writer.setColor(x,y,reader.getColor(srcX,srcY));
+                resized[y*RESIZED_WIDTH+x] = srcRow[srcXs[x]];
             }
         }
+        writer.setPixels(0,0,RESIZED_WIDTH,RESIZED_HEIGHT,format,resized,0,RESIZED_WIDTH);
         return resizedImage;
     }
     
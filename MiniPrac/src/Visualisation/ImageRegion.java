@@ -0,0 +1,84 @@
+package Visualisation;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+
+/**
+ * A rectangle of a source image that is read in place instead of being copied
+ * Cropping just makes a new region so feature extraction can read the original pixels directly
+ */
+public class ImageRegion {
+	private final Image source;//image the pixels really live in
+	private final int x, y, width, height;//position of the region inside the source
+
+	/**
+	 * Region covering the whole image
+	 * @param source
+	 */
+	public ImageRegion(Image source) {
+		this(source,0,0,(int)source.getWidth(),(int)source.getHeight());
+	}
+
+	/**
+	 * Region of the source image,clipped so it stays within the source bounds
+	 * @param source
+	 * @param x The x coordinate of the top-left corner
+	 * @param y The y coordinate of the top-left corner
+	 * @param width
+	 * @param height
+	 */
+	public ImageRegion(Image source,int x,int y,int width,int height) {
+		super();
+		// Ensure region is within bounds
+		int safeX = Math.max(0,Math.min(x,(int)source.getWidth()));
+		int safeY = Math.max(0,Math.min(y,(int)source.getHeight()));
+		this.source = source;
+		this.x = safeX;
+		this.y = safeY;
+		this.width = (int)Math.max(0,Math.min((long)x+width,(int)source.getWidth())-safeX);//long so a huge width cannot wrap
+		this.height = (int)Math.max(0,Math.min((long)y+height,(int)source.getHeight())-safeY);
+	}
+
+	/**
+	 * Crops this region further,coordinates are relative to this region
+	 * The crop is clipped to this region on every side,so it never reaches outside it
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return ImageRegion of the same source image
+	 */
+	public ImageRegion subRegion(int x,int y,int width,int height) {
+		int minX = Math.max(0,Math.min(x,this.width));
+		int minY = Math.max(0,Math.min(y,this.height));
+		int maxX = (int)Math.max(minX,Math.min((long)x+width,this.width));//not allowed to grow past this region
+		int maxY = (int)Math.max(minY,Math.min((long)y+height,this.height));
+		return new ImageRegion(source,this.x+minX,this.y+minY,maxX-minX,maxY-minY);
+	}
+
+	/**
+	 * Copies the region's pixels into an image of its own
+	 * Only needed when the crop has to outlive the source,e.g. as a product's picture
+	 * @return Image
+	 */
+	public Image toImage() {
+		return new WritableImage(source.getPixelReader(),x,y,width,height);
+	}
+
+	//Getters
+	public Image getSource() {
+		return source;
+	}
+	public int getX() {
+		return x;
+	}
+	public int getY() {
+		return y;
+	}
+	public int getWidth() {
+		return width;
+	}
+	public int getHeight() {
+		return height;
+	}
+}
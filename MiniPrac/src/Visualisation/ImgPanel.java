@@ -1,5 +1,6 @@
 package Visualisation;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
@@ -68,14 +69,28 @@ public class ImgPanel extends Pane{
      * @param img
      */
     public void setImage(Image img) {
+    	ImgView.setViewport(null);//show the whole image
     	ImgView.setImage(img);
         ImgView.setPreserveRatio(true);
         ImgView.setSmooth(true);
         ImgView.setCache(true);
     }
 
+    /**
+     * Shows only a region of its source image,the pixels are not copied
+     * @param region
+     */
+    public void setRegion(ImageRegion region) {
+    	ImgView.setImage(region.getSource());
+    	ImgView.setViewport(new Rectangle2D(region.getX(),region.getY(),region.getWidth(),region.getHeight()));
+        ImgView.setPreserveRatio(true);
+        ImgView.setSmooth(true);
+        ImgView.setCache(true);
+    }
+
     /**
      * Method  converts a mouse-drawn rectangle (on the image) into a rectangle in image pixel coordinates
+     * When a region is shown the coordinates are relative to the region
      * @return
      */
     public Rectangle getSelection() {
@@ -85,9 +100,10 @@ public class ImgPanel extends Pane{
     	}
 
         Image img = ImgView.getImage();
-        //getting the real pixel size of the image
-        double Iwidth = img.getWidth();
-        double Iheight = img.getHeight();
+        //getting the real pixel size of the image(or of the shown region)
+        Rectangle2D viewport = ImgView.getViewport();
+        double Iwidth = (viewport != null) ? viewport.getWidth() : img.getWidth();
+        double Iheight = (viewport != null) ? viewport.getHeight() : img.getHeight();
         //getting the size of the ImageView
         double Vwidth = ImgView.getBoundsInParent().getWidth();
         double Vheight = ImgView.getBoundsInParent().getHeight();
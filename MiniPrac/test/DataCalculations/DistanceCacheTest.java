@@ -0,0 +1,73 @@
+package DataCalculations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import Storage.FeatureStore;
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Distances only read what the cache holds,and neighbour searches read them through the cascade
+ */
+class DistanceCacheTest {
+
+	private static Features randomFeatures(Random random) {
+		double[] hist = new double[FeatureStore.BINS];
+		double sum = 0;
+		for (int i = 0; i<hist.length; i++) {
+			hist[i] = random.nextDouble();
+			sum += hist[i];
+		}
+		for (int i = 0; i<hist.length; i++) {
+			hist[i] /= sum;
+		}
+		return new Features(100+random.nextDouble(),hist,50,50);
+	}
+
+	@Test
+	void cachedDistanceOnlyReadsFilledPairs() {
+		Random random = new Random(5);
+		DistanceCache cache = new DistanceCache(2);//the third features on go into tiles
+		Features a = randomFeatures(random), b = randomFeatures(random), c = randomFeatures(random);
+		cache.add(a);
+		cache.add(b);
+		cache.add(c);
+		assertEquals((float)KNN.rawDistance(a,b),cache.cachedDistance(a,b),0.0,"triangular row");
+		assertTrue(Double.isNaN(cache.cachedDistance(a,c)),"tile not filled yet");
+		assertTrue(Double.isNaN(cache.cachedDistance(a,randomFeatures(random))),"not in the cache");
+		double d = cache.distance(a,c);
+		assertEquals(d,cache.cachedDistance(a,c),0.0,"tile filled by distance");
+	}
+
+	@Test
+	void neighbourSearchesReadTheCache() {
+		Random random = new Random(6);
+		List<Product> products = new ArrayList<>();
+		DistanceCache cache = new DistanceCache();
+		for (int i = 0; i<20; i++) {
+			Product p = new Product("p" + i,randomFeatures(random),null,null,null,null);
+			cache.add(p.getFeatures());
+			products.add(p);
+		}
+		DistanceCache old = KNN.getDistanceCache();
+		KNN.setDistanceCache(cache);
+		try {
+			KNN.getCascade().resetCounters();
+			double[] cached = KNN.AvgDists(products,3,DistanceMetric.EUCLIDEAN);
+			assertTrue(KNN.getCascade().getCacheHits() > 0,"no pair was read from the cache");
+			KNN.setDistanceCache(null);
+			double[] computed = KNN.AvgDists(products,3,DistanceMetric.EUCLIDEAN);
+			for (int k = 0; k<3; k++) {
+				assertEquals(computed[k],cached[k],1e-6*computed[k],"k=" + (k+1));
+			}
+		} finally {
+			KNN.setDistanceCache(old);
+		}
+	}
+}
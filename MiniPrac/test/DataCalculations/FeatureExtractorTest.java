@@ -0,0 +1,38 @@
+package DataCalculations;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import Storage.Features;
+
+/**
+ * The band-parallel extractor has to give exactly what the sequential one gives
+ */
+class FeatureExtractorTest {
+
+	@Test
+	void parallelMatchesSequential() throws IOException {
+		File[] images = new File("data").listFiles((dir,name) -> name.endsWith(".jpg"));
+		assertTrue(images != null && images.length > 0,"no images in data/");
+		for (File file : images) {
+			BufferedImage img = ImageIO.read(file);
+			int w = img.getWidth(), h = img.getHeight();
+			assertSame(FeatureExtractor.extract(img),FeatureExtractor.extractParallel(img),file.getName());
+			assertSame(FeatureExtractor.extract(img,w/4,h/4,w/2,h/2),FeatureExtractor.extractParallel(img,w/4,h/4,w/2,h/2),
+					file.getName() + " region");
+		}
+	}
+
+	private static void assertSame(Features expected,Features actual,String name) {
+		assertEquals(expected.getAvgGray(),actual.getAvgGray(),name + " average gray");
+		assertArrayEquals(expected.getRgbHistogram(),actual.getRgbHistogram(),name + " histogram");
+		assertEquals(expected.getPerceptualHash(),actual.getPerceptualHash(),name + " perceptual hash");
+	}
+}
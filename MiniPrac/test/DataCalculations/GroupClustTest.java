@@ -0,0 +1,39 @@
+package DataCalculations;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import Storage.FeatureStore;
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Representatives are picked with the metric the clustering was built with,not KNN's
+ */
+class GroupClustTest {
+
+	private static Features features(double... bins) {
+		double[] hist = new double[FeatureStore.BINS];
+		System.arraycopy(bins,0,hist,0,bins.length);
+		return new Features(100,hist,50,50);
+	}
+
+	@Test
+	void closestProductUsesTheClusteringMetric() {
+		Features centroid = features(0.5,0.5);
+		Product shifted = new Product("shifted",features(0.6,0.4),null,null,null,null);
+		//nearer by Euclidean distance,but the new bin is sparse so chi-square puts it further away
+		Product spread = new Product("spread",features(0.45,0.45,0.1),null,null,null,null);
+		List<Product> products = List.of(shifted,spread);
+		assertSame(spread,new GroupClust(1,products,DistanceMetric.EUCLIDEAN).getClosestProductToCentroid(centroid,products));
+		DistanceMetric old = KNN.getMetric();
+		KNN.setMetric(DistanceMetric.EUCLIDEAN);
+		try {
+			assertSame(shifted,new GroupClust(1,products,DistanceMetric.CHI_SQUARE).getClosestProductToCentroid(centroid,products));
+		} finally {
+			KNN.setMetric(old);
+		}
+	}
+}
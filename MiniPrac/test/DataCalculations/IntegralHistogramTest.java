@@ -0,0 +1,51 @@
+package DataCalculations;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import Storage.Features;
+
+/**
+ * Region features are only compared with product features quantized to the same bins
+ */
+class IntegralHistogramTest {
+
+	@Test
+	void quantizedFeaturesAreCloserToRegions() throws IOException {
+		File[] images = new File("data").listFiles((dir,name) -> name.endsWith(".jpg"));
+		assertTrue(images != null && images.length > 0,"no images in data/");
+		for (File file : images) {
+			BufferedImage img = ImageIO.read(file);
+			int w = img.getWidth(), h = img.getHeight();
+			IntegralHistogram index = new IntegralHistogram((y,row) -> img.getRGB(0,y,w,1,row,0,w),w,h);
+			Features window = index.regionFeatures(0,0,w,h);
+			Features exact = FeatureExtractor.extract(img);
+			Features quantized = index.quantize(exact);
+			double exactDist = window.squaredHistogramDistance(exact);
+			double quantizedDist = window.squaredHistogramDistance(quantized);
+			assertTrue(quantizedDist < exactDist,file.getName() + " quantized histogram is not closer");
+		}
+	}
+
+	@Test
+	void quantizeKeepsTheMass() throws IOException {
+		BufferedImage img = ImageIO.read(new File("data/apple.jpg"));
+		int w = img.getWidth(), h = img.getHeight();
+		IntegralHistogram index = new IntegralHistogram((y,row) -> img.getRGB(0,y,w,1,row,0,w),w,h);
+		Features exact = FeatureExtractor.extract(img);
+		Features quantized = index.quantize(exact);
+		double sum = 0;
+		for (double v : quantized.getRgbHistogram()) {
+			sum += v;
+		}
+		assertEquals(1.0,sum,1e-9,"histogram total");
+		assertEquals(exact.getAvgGray(),quantized.getAvgGray(),"average gray");
+		assertEquals(exact.getPerceptualHash(),quantized.getPerceptualHash(),"perceptual hash");
+	}
+}
@@ -0,0 +1,71 @@
+package DataCalculations;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import Storage.FeatureStore;
+import Storage.Features;
+import Storage.Product;
+
+/**
+ * Indexes that skip products by the triangle inequality must still give the exact answer for a metric without it
+ */
+class ProductIndexTest {
+	private static final int K = 5;
+
+	@Test
+	void chiSquareGivesTheExactNeighbours() {
+		assertFalse(DistanceMetric.CHI_SQUARE.isMetric());
+		Random random = new Random(7);
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i<300; i++) {
+			products.add(new Product("p" + i,randomFeatures(random),null,null,null,null));
+		}
+		DistanceMetric old = KNN.getMetric();
+		KNN.setMetric(DistanceMetric.CHI_SQUARE);
+		try {
+			for (ProductIndex index : new ProductIndex[] {new VPTree(),new HNSWIndex()}) {
+				products.forEach(index::add);
+				for (int q = 0; q<20; q++) {
+					Features query = randomFeatures(random);
+					String name = index.getClass().getSimpleName() + " query " + q;
+					assertArrayEquals(bruteForce(products,query),distances(index.nearest(query,K),query),1e-12,name);
+				}
+			}
+		} finally {
+			KNN.setMetric(old);
+		}
+	}
+
+	private static double[] bruteForce(List<Product> products,Features query) {
+		List<Product> sorted = new ArrayList<>(products);
+		sorted.sort(Comparator.comparingDouble(p -> KNN.computeDistance(query,p.getFeatures())));
+		return distances(sorted.subList(0,K),query);
+	}
+
+	private static double[] distances(List<Product> products,Features query) {
+		double[] out = new double[products.size()];
+		for (int i = 0; i<out.length; i++) {
+			out[i] = KNN.computeDistance(query,products.get(i).getFeatures());
+		}
+		return out;
+	}
+
+	/**
+	 * Mixes of two fixed histograms,along that line chi-square grows about as the square of the difference in mix
+	 */
+	private static Features randomFeatures(Random random) {
+		double t = random.nextDouble();
+		double[] hist = new double[FeatureStore.BINS];
+		for (int i = 0; i<hist.length; i++) {
+			hist[i] = (i < hist.length/2) ? (1-t)*2/hist.length : t*2/hist.length;
+		}
+		return new Features(128,hist,100,100);
+	}
+}
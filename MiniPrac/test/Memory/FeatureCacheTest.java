@@ -0,0 +1,55 @@
+package Memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import DataCalculations.FeatureExtractor;
+import Storage.Features;
+import Storage.QuantizedFeatureStore;
+
+/**
+ * A crop whose features fell out of the cache is extracted again from its image file
+ */
+class FeatureCacheTest {
+
+	@Test
+	void missingRegionIsExtractedAgain() throws IOException {
+		File image = new File("data/apple.jpg");
+		FeatureCache cache = new FeatureCache(Files.createTempDirectory("featureCache").resolve("cache").toFile(),10);
+		String key = FeatureCache.key(FeatureCache.contentHash(image),10,20,30,40);
+		Features expected = FeatureExtractor.extract(ImageIO.read(image),10,20,30,40);
+		Features feats = cache.getOrExtract(key,image);
+		assertEquals(expected.getAvgGray(),feats.getAvgGray());
+		assertArrayEquals(expected.getRgbHistogram(),feats.getRgbHistogram());
+		assertEquals(1,cache.size());
+	}
+
+	@Test
+	void changedFileIsNotExtracted() throws IOException {
+		FeatureCache cache = new FeatureCache(Files.createTempDirectory("featureCache").resolve("cache").toFile(),10);
+		String key = FeatureCache.key(FeatureCache.contentHash(new File("data/apple.jpg")),0,0,5,5);
+		assertNull(cache.getOrExtract(key,new File("data/eggs.jpg")));
+		assertNull(cache.getOrExtract(FeatureCache.key("abc"),new File("data/eggs.jpg")));
+	}
+
+	@Test
+	void attachingDoesNotChangeTheCachedEntry() throws IOException {
+		FeatureCache cache = new FeatureCache(Files.createTempDirectory("featureCache").resolve("cache").toFile(),10);
+		Features extracted = FeatureExtractor.extract(ImageIO.read(new File("data/eggs.jpg")));
+		double[] exact = extracted.getRgbHistogram().clone();
+		Features feats = cache.getOrCompute("eggs",() -> extracted);
+		feats.attach(new QuantizedFeatureStore());//what ManageData.addProduct does
+		Features cached = cache.get("eggs");
+		assertNotSame(feats,cached);
+		assertNull(cached.getStore());
+		assertArrayEquals(exact,cached.getRgbHistogram());
+	}
+}
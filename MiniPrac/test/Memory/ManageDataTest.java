@@ -0,0 +1,34 @@
+package Memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+
+import Storage.FeatureStore;
+import Storage.Features;
+import Storage.Product;
+import Storage.QuantizedFeatureStore;
+
+/**
+ * Starting over keeps the store ManageData was built with
+ */
+class ManageDataTest {
+
+	@Test
+	void clearAllKeepsTheConfiguredStore() throws IOException {
+		File dir = Files.createTempDirectory("data").toFile();
+		FeatureStore store = new QuantizedFeatureStore();
+		ManageData data = new ManageData(new FeatureCache(new File(dir,"cache"),10),store);
+		double[] hist = new double[FeatureStore.BINS];
+		hist[3] = 1;
+		data.addProduct(new Product("milk",new Features(100,hist,100,100),null,null,null,null));
+		assertEquals(1,store.size(),"stored");
+		data.clearAll();
+		assertSame(store,data.getFeatureStore());
+		assertEquals(0,store.size(),"emptied in place");
+	}
+}
@@ -0,0 +1,126 @@
+package Memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import Storage.ArrayFeatureStore;
+import Storage.Product;
+
+/**
+ * Released ordinals are reused,also after a restart,and the files can only be open once
+ */
+class MappedFeatureStoreTest {
+
+	private static double[] hist(int bin) {
+		double[] h = new double[256];
+		h[bin] = 1;
+		return h;
+	}
+
+	@Test
+	void releasedOrdinalsAreReused() throws IOException {
+		File base = Files.createTempDirectory("store").resolve("featureStore").toFile();
+		MappedFeatureStore store = new MappedFeatureStore(base);
+		for (int i = 0; i<3; i++) {
+			store.add(i,hist(i),100,100,false,0);
+		}
+		store.release(1);
+		assertEquals(1,store.add(7,hist(7),100,100,false,0),"reused ordinal");
+		assertEquals(3,store.size(),"size");
+		assertEquals(7.0,store.getAvgGray(1),"written over");
+		store.release(2);
+		store.close();
+
+		MappedFeatureStore reopened = new MappedFeatureStore(base);
+		assertTrue(reopened.isReleased(2),"release survives a restart");
+		assertEquals(2,reopened.add(8,hist(8),100,100,false,0),"reused after restart");
+		assertEquals(3,reopened.size(),"size after restart");
+		reopened.clear();
+		assertEquals(0,reopened.size(),"cleared");
+		assertEquals(0,reopened.add(9,hist(9),100,100,false,0),"first ordinal after clear");
+		reopened.close();
+	}
+
+	@Test
+	void filesCanOnlyBeOpenOnce() throws IOException {
+		File base = Files.createTempDirectory("store").resolve("featureStore").toFile();
+		MappedFeatureStore store = new MappedFeatureStore(base);
+		assertThrows(IOException.class,() -> new MappedFeatureStore(base));
+		store.close();
+		new MappedFeatureStore(base).close();
+	}
+
+	@Test
+	void reloadingACsvDoesNotGrowTheStore() throws IOException {
+		File dir = Files.createTempDirectory("store").toFile();
+		MappedFeatureStore store = new MappedFeatureStore(new File(dir,"featureStore"));
+		ManageData data = new ManageData(new FeatureCache(new File(dir,"cache"),10),store);
+		File csv = new File(dir,"products.csv");
+		try (PrintWriter out = new PrintWriter(csv)) {//saved before ordinals were written
+			out.println("milk,A,2026,1,1,100.0,100,100,,FRESH");
+			out.println("eggs,B,2026,1,2,50.0,100,100,,FRESH");
+		}
+		data.loadFromCSV(csv.getPath());
+		data.loadFromCSV(csv.getPath());
+		assertEquals(2,data.getAllProducts().size(),"products");
+		assertEquals(2,store.size(),"ordinals");
+
+		Product removed = data.getAllProducts().get(0);
+		data.removeProduct(removed);
+		assertEquals(1,store.releasedCount(),"released on remove");
+		assertEquals(null,removed.getFeatures().getStore(),"removed product keeps its own histogram");
+
+		data.clearAll();
+		assertEquals(0,store.size(),"empty after clearAll");
+		store.close();
+	}
+
+	@Test
+	void duplicateRowsGiveBackTheirOrdinals() throws IOException {
+		File dir = Files.createTempDirectory("store").toFile();
+		MappedFeatureStore store = new MappedFeatureStore(new File(dir,"featureStore"));
+		store.add(100.0,hist(1),100,100,true,0x1234L);
+		store.add(100.0,hist(1),100,100,true,0x1234L);
+		ManageData data = new ManageData(new FeatureCache(new File(dir,"cache"),10),store);
+		File csv = new File(dir,"products.csv");
+		try (PrintWriter out = new PrintWriter(csv)) {//the same photo saved twice under two ordinals
+			out.println("milk,A,2026,1,1,100.0,100,100,,FRESH,,,0");
+			out.println("milk,A,2026,1,1,100.0,100,100,,FRESH,,,1");
+		}
+		data.loadFromCSV(csv.getPath());
+		assertEquals(1,data.getAllProducts().size(),"duplicate rejected");
+		assertTrue(store.isReleased(1),"rejected row's ordinal released");
+		assertEquals(1,store.releasedCount(),"released");
+		store.close();
+	}
+
+	@Test
+	void dotReadInPlaceMatchesHeapStore() throws IOException {
+		MappedFeatureStore mapped = new MappedFeatureStore(Files.createTempDirectory("store").resolve("featureStore").toFile());
+		ArrayFeatureStore heap = new ArrayFeatureStore();
+		Random random = new Random(3);
+		double[][] hists = new double[3][256];
+		for (double[] h : hists) {
+			for (int i = 0; i<256; i++) {
+				h[i] = random.nextDouble()/128;
+			}
+			mapped.add(0,h,100,100,false,0);
+			heap.add(0,h,100,100,false,0);
+		}
+		for (int a = 0; a<3; a++) {
+			for (int b = 0; b<3; b++) {
+				assertEquals(heap.dot(a,b),mapped.dot(a,b),1e-9,"dot " + a + "," + b);
+			}
+			assertEquals(heap.dot(a,hists[0]),mapped.dot(a,hists[0]),1e-9,"dot with " + a);
+		}
+		mapped.close();
+	}
+}
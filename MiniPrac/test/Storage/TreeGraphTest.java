@@ -0,0 +1,62 @@
+package Storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import DataCalculations.BatchKNN;
+import DataCalculations.FeatureExtractor;
+
+/**
+ * Batch classification gives every crop the nearest product in the graph,or null when none is close enough
+ */
+class TreeGraphTest {
+
+	@Test
+	void classifyProductsMatchesCropsToTheirProducts() throws IOException {
+		File[] images = new File("data").listFiles((dir,name) -> name.endsWith(".jpg"));
+		assertTrue(images != null && images.length > 0,"no images in data/");
+		TreeGraph graph = new TreeGraph(new HashMap<>());
+		List<Product> products = new ArrayList<>();
+		List<Features> crops = new ArrayList<>();
+		for (File file : images) {
+			BufferedImage img = ImageIO.read(file);
+			int w = img.getWidth(), h = img.getHeight();
+			Product p = new Product(file.getName(),FeatureExtractor.extract(img),null,null,null,null);
+			graph.addProduct(p);
+			products.add(p);
+			crops.add(FeatureExtractor.extract(img,1,1,w-2,h-2));//one pixel trimmed off every side
+		}
+		crops.add(new Features(128,new double[FeatureStore.BINS],100000,100000));//far from everything
+
+		BatchKNN batch = new BatchKNN();
+		batch.setQueryBlock(2);
+		List<Product> classified = graph.classifyProducts(crops,batch);
+		assertEquals(crops.size(),classified.size());
+		for (int i = 0; i<products.size(); i++) {
+			assertSame(products.get(i),classified.get(i),products.get(i).getName());
+		}
+		assertNull(classified.get(products.size()),"far crop");
+	}
+
+	@Test
+	void batchNearestReturnsTheWholeCatalogForAHugeK() throws IOException {
+		BufferedImage img = ImageIO.read(new File("data/apple.jpg"));
+		List<Product> catalog = new ArrayList<>();
+		for (int i = 1; i<=3; i++) {
+			catalog.add(new Product("apple" + i,FeatureExtractor.extract(img,0,0,img.getWidth()/i,img.getHeight()/i),null,null,null,null));
+		}
+		List<List<Product>> found = new BatchKNN().nearest(List.of(catalog.get(0).getFeatures()),catalog,Integer.MAX_VALUE);
+		assertEquals(catalog,found.get(0));
+	}
+}
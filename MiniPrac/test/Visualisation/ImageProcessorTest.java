@@ -0,0 +1,61 @@
+package Visualisation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import DataCalculations.FeatureExtractor;
+import Storage.Features;
+
+/**
+ * Golden test of the fused extractFeatures against the original per-pixel version on the data images
+ */
+class ImageProcessorTest {
+
+	@BeforeAll
+	static void softwareRendering() {
+		//images are made without starting the FX toolkit,the software pipeline needs no display
+		System.setProperty("prism.order","sw");
+	}
+
+	@Test
+	void fusedExtractionMatchesPerPixel() throws IOException {
+		File[] images = new File("data").listFiles((dir,name) -> name.endsWith(".jpg"));
+		assertTrue(images != null && images.length > 0,"no images in data/");
+		for (File file : images) {
+			Image img = SwingFXUtils.toFXImage(ImageIO.read(file),null);
+			Features fused = ImageProcessor.extractFeatures(img);
+			Features reference = ImageProcessor.extractFeaturesPerPixel(img);
+			String name = file.getName();
+			assertEquals(reference.getAvgGray(),fused.getAvgGray(),name + " average gray");
+			assertArrayEquals(reference.getRgbHistogram(),fused.getRgbHistogram(),name + " histogram");
+			assertEquals(reference.getWidth(),fused.getWidth(),name + " width");
+			assertEquals(reference.getHeight(),fused.getHeight(),name + " height");
+			assertEquals(reference.getPerceptualHash(),fused.getPerceptualHash(),name + " perceptual hash");
+		}
+	}
+
+	@Test
+	void parallelExtractionOfCopiedPixelsMatchesImage() throws IOException {
+		//the GUI extracts crops from a BufferedImage copy of the photo,it has to agree with the FX image
+		File[] images = new File("data").listFiles((dir,name) -> name.endsWith(".jpg"));
+		assertTrue(images != null && images.length > 0,"no images in data/");
+		for (File file : images) {
+			Image img = SwingFXUtils.toFXImage(ImageIO.read(file),null);
+			Features fx = ImageProcessor.extractFeatures(img);
+			Features copied = FeatureExtractor.extractParallel(SwingFXUtils.fromFXImage(img,null));
+			String name = file.getName();
+			assertEquals(fx.getAvgGray(),copied.getAvgGray(),name + " average gray");
+			assertArrayEquals(fx.getRgbHistogram(),copied.getRgbHistogram(),name + " histogram");
+			assertEquals(fx.getPerceptualHash(),copied.getPerceptualHash(),name + " perceptual hash");
+		}
+	}
+}
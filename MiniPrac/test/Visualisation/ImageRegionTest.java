@@ -0,0 +1,48 @@
+package Visualisation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Crops of crops have to stay inside their parent region
+ */
+class ImageRegionTest {
+
+	@BeforeAll
+	static void softwareRendering() {
+		System.setProperty("prism.order","sw");
+	}
+
+	@Test
+	void subRegionClipsOriginToParent() {
+		ImageRegion parent = new ImageRegion(new WritableImage(100,80),20,10,50,40);
+		ImageRegion crop = parent.subRegion(-5,-8,30,30);
+		assertEquals(20,crop.getX(),"x");
+		assertEquals(10,crop.getY(),"y");
+		assertEquals(25,crop.getWidth(),"width");
+		assertEquals(22,crop.getHeight(),"height");
+	}
+
+	@Test
+	void subRegionClipsExtentToParent() {
+		ImageRegion parent = new ImageRegion(new WritableImage(100,80),20,10,50,40);
+		ImageRegion crop = parent.subRegion(40,30,100,100);
+		assertEquals(60,crop.getX(),"x");
+		assertEquals(40,crop.getY(),"y");
+		assertEquals(10,crop.getWidth(),"width");
+		assertEquals(10,crop.getHeight(),"height");
+		ImageRegion outside = parent.subRegion(70,50,10,10);
+		assertEquals(0,outside.getWidth(),"width past the parent");
+		assertEquals(0,outside.getHeight(),"height past the parent");
+	}
+
+	@Test
+	void hugeExtentClipsToSource() {
+		ImageRegion region = new ImageRegion(new WritableImage(100,80),10,5,Integer.MAX_VALUE,Integer.MAX_VALUE);
+		assertEquals(90,region.getWidth(),"width");
+		assertEquals(75,region.getHeight(),"height");
+	}
+}
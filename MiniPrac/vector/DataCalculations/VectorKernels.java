@@ -0,0 +1,151 @@
+package DataCalculations;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * HistogramKernels using the Java Vector API so each step works on a whole SIMD register of bins
+ * Only ever loaded by name from HistogramKernels,so nothing breaks when jdk.incubator.vector is missing.
+ * Kept in its own source folder,the only one that needs --add-modules jdk.incubator.vector to compile
+ */
+class VectorKernels extends HistogramKernels {
+	private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+	//floats with as many lanes as D,so they can be widened into one double vector
+	private static final VectorSpecies<Float> F_AS_D = VectorSpecies.of(float.class,VectorShape.forBitSize(D.vectorBitSize()/2));
+
+	@Override
+	public double dot(double[] a,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(a.length); i<bound; i += D.length()) {
+			acc = DoubleVector.fromArray(D,a,i).fma(DoubleVector.fromArray(D,b,i),acc);
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<a.length; i++) {
+			sum += a[i]*b[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a,int offA,float[] b,int offB,int length) {
+		//each lane only sums length/lanes products so float keeps enough precision
+		FloatVector acc = FloatVector.zero(F);
+		int i = 0;
+		for (int bound = F.loopBound(length); i<bound; i += F.length()) {
+			acc = FloatVector.fromArray(F,a,offA+i).fma(FloatVector.fromArray(F,b,offB+i),acc);
+		}
+		double sum = 0;
+		for (int lane = 0; lane<F.length(); lane++) {
+			sum += acc.lane(lane);
+		}
+		for (; i<length; i++) {
+			sum += a[offA+i]*b[offB+i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a,int offA,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(b.length); i<bound; i += D.length()) {
+			DoubleVector va = (DoubleVector) FloatVector.fromArray(F_AS_D,a,offA+i).convertShape(VectorOperators.F2D,D,0);
+			acc = va.fma(DoubleVector.fromArray(D,b,i),acc);
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<b.length; i++) {
+			sum += a[offA+i]*b[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public double squaredDistance(double[] a,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(a.length); i<bound; i += D.length()) {
+			DoubleVector d = DoubleVector.fromArray(D,a,i).sub(DoubleVector.fromArray(D,b,i));
+			acc = d.fma(d,acc);
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<a.length; i++) {
+			double d = a[i]-b[i];
+			sum += d*d;
+		}
+		return sum;
+	}
+
+	@Override
+	public double l1Distance(double[] a,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(a.length); i<bound; i += D.length()) {
+			acc = acc.add(DoubleVector.fromArray(D,a,i).sub(DoubleVector.fromArray(D,b,i)).abs());
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<a.length; i++) {
+			sum += Math.abs(a[i]-b[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double intersection(double[] a,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(a.length); i<bound; i += D.length()) {
+			acc = acc.add(DoubleVector.fromArray(D,a,i).min(DoubleVector.fromArray(D,b,i)));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<a.length; i++) {
+			sum += Math.min(a[i],b[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double chiSquare(double[] a,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(a.length); i<bound; i += D.length()) {
+			DoubleVector va = DoubleVector.fromArray(D,a,i);
+			DoubleVector vb = DoubleVector.fromArray(D,b,i);
+			DoubleVector d = va.sub(vb);
+			//a bin empty in both has d == 0,so dividing by the smallest normal gives 0 instead of 0/0
+			acc = acc.add(d.mul(d).div(va.add(vb).max(Double.MIN_NORMAL)));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<a.length; i++) {
+			double s = a[i]+b[i];
+			if (s > 0) {
+				double d = a[i]-b[i];
+				sum += d*d/s;
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double bhattacharyya(double[] a,double[] b) {
+		DoubleVector acc = DoubleVector.zero(D);
+		int i = 0;
+		for (int bound = D.loopBound(a.length); i<bound; i += D.length()) {
+			acc = acc.add(DoubleVector.fromArray(D,a,i).mul(DoubleVector.fromArray(D,b,i)).lanewise(VectorOperators.SQRT));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i<a.length; i++) {
+			sum += Math.sqrt(a[i]*b[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public String getName() {
+		return "vector " + D.vectorBitSize() + " bit";
+	}
+}